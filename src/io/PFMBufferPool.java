@@ -0,0 +1,467 @@
+package io;
+
+import metrics.PFMMetrics;
+import metrics.PFMMetrics.Counter;
+
+import java.io.PrintStream;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of float arrays and byte buffers which can be reused across the
+ * reading and processing of Portable Float Map images with the same
+ * dimensions.
+ * 
+ * Float arrays are pooled per exact length, since an image which takes
+ * ownership of a pooled array derives its number of channels from the length
+ * of the array. Byte buffers are pooled per power of two capacity and have
+ * their limit set to the requested size. Byte buffers are allocated directly
+ * when the pool is created for direct buffers.
+ * 
+ * The pool retains at most a configurable number of bytes. Arrays and buffers
+ * which are released when the pool is full are left to the garbage collector.
+ * 
+ * In debug mode the pool tracks every array and buffer it hands out. Arrays
+ * and buffers which are garbage collected without being released are reported
+ * together with the stack trace of their acquisition, and releasing an array
+ * or buffer which is not outstanding throws an exception.
+ * 
+ * This class is threadsafe.
+ * 
+ * @author Niels Billen
+ * @version 1.0
+ * 
+ *          Redistribution and use in source and binary forms, with or without
+ *          modification, are permitted provided that the following conditions
+ *          are met:
+ * 
+ *          - Redistributions of source code must retain the above copyright
+ *          notice, this list of conditions and the following disclaimer.
+ * 
+ *          - Redistributions in binary form must reproduce the above copyright
+ *          notice, this list of conditions and the following disclaimer in the
+ *          documentation and/or other materials provided with the distribution.
+ * 
+ *          THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *          "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *          LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *          FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *          COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *          INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *          BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *          LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *          CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *          LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *          ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *          POSSIBILITY OF SUCH DAMAGE.
+ */
+public class PFMBufferPool {
+	private final long maxBytes;
+	private final boolean direct;
+	private final boolean debug;
+	private long bytes = 0;
+
+	private final Map<Integer, ArrayDeque<float[]>> floats = new HashMap<Integer, ArrayDeque<float[]>>();
+	private final Map<Integer, ArrayDeque<ByteBuffer>> buffers = new HashMap<Integer, ArrayDeque<ByteBuffer>>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * The arrays and buffers which are handed out in debug mode, bucketed by
+	 * their identity hash code.
+	 */
+	private final Map<Integer, List<Tracker>> outstanding = new HashMap<Integer, List<Tracker>>();
+	private final ReferenceQueue<Object> collected = new ReferenceQueue<Object>();
+	private final AtomicLong leaks = new AtomicLong();
+	private PrintStream log = System.err;
+
+	/**
+	 * Creates a new pool of heap arrays and buffers which retains at most the
+	 * given number of bytes.
+	 * 
+	 * @param maxBytes
+	 *            the maximum number of bytes retained by the pool.
+	 * @throws IllegalArgumentException
+	 *             when the maximum number of bytes is negative.
+	 */
+	public PFMBufferPool(long maxBytes) throws IllegalArgumentException {
+		this(maxBytes, false, false);
+	}
+
+	/**
+	 * Creates a new pool which retains at most the given number of bytes.
+	 * 
+	 * @param maxBytes
+	 *            the maximum number of bytes retained by the pool.
+	 * @param direct
+	 *            whether the byte buffers are allocated directly.
+	 * @param debug
+	 *            whether the pool tracks the arrays and buffers it hands out
+	 *            to detect leaks.
+	 * @throws IllegalArgumentException
+	 *             when the maximum number of bytes is negative.
+	 */
+	public PFMBufferPool(long maxBytes, boolean direct, boolean debug)
+			throws IllegalArgumentException {
+		if (maxBytes < 0)
+			throw new IllegalArgumentException(
+					"the maximum number of bytes cannot be negative!");
+		this.maxBytes = maxBytes;
+		this.direct = direct;
+		this.debug = debug;
+	}
+
+	/**
+	 * Returns a float array of exactly the given length. The contents of the
+	 * array are undefined.
+	 * 
+	 * @param length
+	 *            the length of the array.
+	 * @throws IllegalArgumentException
+	 *             when the length is negative.
+	 * @return a float array of exactly the given length.
+	 */
+	public float[] acquireFloats(int length) throws IllegalArgumentException {
+		if (length < 0)
+			throw new IllegalArgumentException(
+					"the length cannot be negative!");
+		float[] result = null;
+		synchronized (this) {
+			ArrayDeque<float[]> list = floats.get(length);
+			if (list != null && (result = list.poll()) != null)
+				bytes -= 4L * length;
+		}
+		if (result == null) {
+			misses.incrementAndGet();
+			PFMMetrics.count(Counter.POOL_MISSES, 1);
+			PFMMetrics.count(Counter.ALLOCATED_BYTES, 4L * length);
+			result = new float[length];
+		} else {
+			hits.incrementAndGet();
+			PFMMetrics.count(Counter.POOL_HITS, 1);
+		}
+		track(result);
+		return result;
+	}
+
+	/**
+	 * Returns the given float array to the pool.
+	 * 
+	 * @param array
+	 *            the array to return.
+	 * @throws NullPointerException
+	 *             when the given array is null.
+	 * @throws IllegalStateException
+	 *             when the pool is in debug mode and the given array is not
+	 *             outstanding.
+	 */
+	public void releaseFloats(float[] array) throws NullPointerException,
+			IllegalStateException {
+		if (array == null)
+			throw new NullPointerException("the given array is null!");
+		untrack(array);
+		synchronized (this) {
+			if (bytes + 4L * array.length > maxBytes)
+				return;
+			ArrayDeque<float[]> list = floats.get(array.length);
+			if (list == null)
+				floats.put(array.length, list = new ArrayDeque<float[]>());
+			list.push(array);
+			bytes += 4L * array.length;
+		}
+	}
+
+	/**
+	 * Returns a byte buffer with a limit equal to the given size and a
+	 * capacity equal to the size class of the given size. The buffer is
+	 * positioned at zero, uses big endian byte order and its contents are
+	 * undefined.
+	 * 
+	 * @param size
+	 *            the number of bytes required.
+	 * @throws IllegalArgumentException
+	 *             when the size is negative.
+	 * @return a byte buffer with room for the given number of bytes.
+	 */
+	public ByteBuffer acquireBuffer(int size) throws IllegalArgumentException {
+		if (size < 0)
+			throw new IllegalArgumentException("the size cannot be negative!");
+		final int capacity = sizeClass(size);
+		ByteBuffer result = null;
+		synchronized (this) {
+			ArrayDeque<ByteBuffer> list = buffers.get(capacity);
+			if (list != null && (result = list.poll()) != null)
+				bytes -= capacity;
+		}
+		if (result == null) {
+			misses.incrementAndGet();
+			PFMMetrics.count(Counter.POOL_MISSES, 1);
+			PFMMetrics.count(Counter.ALLOCATED_BYTES, capacity);
+			result = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer
+					.allocate(capacity);
+		} else {
+			hits.incrementAndGet();
+			PFMMetrics.count(Counter.POOL_HITS, 1);
+		}
+		result.clear();
+		result.limit(size);
+		result.order(ByteOrder.BIG_ENDIAN);
+		track(result);
+		return result;
+	}
+
+	/**
+	 * Returns the given byte buffer to the pool.
+	 * 
+	 * @param buffer
+	 *            the buffer to return.
+	 * @throws NullPointerException
+	 *             when the given buffer is null.
+	 * @throws IllegalStateException
+	 *             when the pool is in debug mode and the given buffer is not
+	 *             outstanding.
+	 */
+	public void releaseBuffer(ByteBuffer buffer) throws NullPointerException,
+			IllegalStateException {
+		if (buffer == null)
+			throw new NullPointerException("the given buffer is null!");
+		untrack(buffer);
+		final int capacity = buffer.capacity();
+		if (capacity != sizeClass(capacity) || buffer.isDirect() != direct
+				|| buffer.isReadOnly())
+			return;
+		synchronized (this) {
+			if (bytes + capacity > maxBytes)
+				return;
+			ArrayDeque<ByteBuffer> list = buffers.get(capacity);
+			if (list == null)
+				buffers.put(capacity, list = new ArrayDeque<ByteBuffer>());
+			list.push(buffer);
+			bytes += capacity;
+		}
+	}
+
+	/**
+	 * Returns the size class of the given size, which is the smallest power of
+	 * two larger than or equal to the given size, or the size itself when no
+	 * such power of two fits in an integer.
+	 * 
+	 * @param size
+	 *            the size.
+	 * @return the size class of the given size.
+	 */
+	private static int sizeClass(int size) {
+		if (size <= 1)
+			return 1;
+		int result = Integer.highestOneBit(size - 1) << 1;
+		return result > 0 ? result : size;
+	}
+
+	/**
+	 * Removes all the retained arrays and buffers from the pool.
+	 */
+	public synchronized void clear() {
+		floats.clear();
+		buffers.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * Returns whether this pool allocates direct byte buffers.
+	 * 
+	 * @return whether this pool allocates direct byte buffers.
+	 */
+	public boolean isDirect() {
+		return direct;
+	}
+
+	/**
+	 * Returns whether this pool is in debug mode.
+	 * 
+	 * @return whether this pool is in debug mode.
+	 */
+	public boolean isDebug() {
+		return debug;
+	}
+
+	/**
+	 * Returns the maximum number of bytes retained by this pool.
+	 * 
+	 * @return the maximum number of bytes retained by this pool.
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Returns the number of bytes currently retained by this pool.
+	 * 
+	 * @return the number of bytes currently retained by this pool.
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Returns the number of requests which were answered with a retained array
+	 * or buffer.
+	 * 
+	 * @return the number of pool hits.
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of requests which required a new allocation.
+	 * 
+	 * @return the number of pool misses.
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Sets the stream to which leaks are reported in debug mode.
+	 * 
+	 * @param log
+	 *            the stream to report leaks to.
+	 * @throws NullPointerException
+	 *             when the given stream is null.
+	 */
+	public synchronized void setLeakLog(PrintStream log)
+			throws NullPointerException {
+		if (log == null)
+			throw new NullPointerException("the given stream is null!");
+		this.log = log;
+	}
+
+	/**
+	 * Returns the number of arrays and buffers which were garbage collected
+	 * without being released. Always zero when the pool is not in debug mode.
+	 * 
+	 * @return the number of leaks which were detected.
+	 */
+	public long getLeaks() {
+		if (debug)
+			synchronized (this) {
+				expunge();
+			}
+		return leaks.get();
+	}
+
+	/**
+	 * Returns the number of arrays and buffers which are handed out and not
+	 * released yet. Always zero when the pool is not in debug mode.
+	 * 
+	 * @return the number of outstanding arrays and buffers.
+	 */
+	public synchronized int getOutstanding() {
+		expunge();
+		int result = 0;
+		for (List<Tracker> list : outstanding.values())
+			result += list.size();
+		return result;
+	}
+
+	/**
+	 * Starts tracking the given array or buffer when the pool is in debug
+	 * mode.
+	 * 
+	 * @param object
+	 *            the array or buffer which is handed out.
+	 */
+	private void track(Object object) {
+		if (!debug)
+			return;
+		Tracker tracker = new Tracker(object, collected);
+		synchronized (this) {
+			expunge();
+			List<Tracker> list = outstanding.get(tracker.hash);
+			if (list == null)
+				outstanding.put(tracker.hash, list = new ArrayList<Tracker>(1));
+			list.add(tracker);
+		}
+	}
+
+	/**
+	 * Stops tracking the given array or buffer when the pool is in debug mode.
+	 * 
+	 * @param object
+	 *            the array or buffer which is returned.
+	 * @throws IllegalStateException
+	 *             when the pool is in debug mode and the given object is not
+	 *             outstanding.
+	 */
+	private void untrack(Object object) throws IllegalStateException {
+		if (!debug)
+			return;
+		synchronized (this) {
+			expunge();
+			int hash = System.identityHashCode(object);
+			List<Tracker> list = outstanding.get(hash);
+			if (list != null)
+				for (int i = 0; i < list.size(); ++i)
+					if (list.get(i).get() == object) {
+						list.remove(i).clear();
+						if (list.isEmpty())
+							outstanding.remove(hash);
+						return;
+					}
+		}
+		throw new IllegalStateException(
+				"the given object was not acquired from this pool or has "
+						+ "already been released!");
+	}
+
+	/**
+	 * Reports all the tracked arrays and buffers which were garbage collected
+	 * without being released. The caller must hold the monitor of this pool.
+	 */
+	private void expunge() {
+		Tracker tracker;
+		while ((tracker = (Tracker) collected.poll()) != null) {
+			List<Tracker> list = outstanding.get(tracker.hash);
+			if (list == null || !list.remove(tracker))
+				continue;
+			if (list.isEmpty())
+				outstanding.remove(tracker.hash);
+			leaks.incrementAndGet();
+			log.println("PFMBufferPool: an array or buffer was garbage "
+					+ "collected without being released!");
+			tracker.site.printStackTrace(log);
+		}
+	}
+
+	/**
+	 * Tracks an array or buffer handed out by a pool in debug mode.
+	 */
+	private static final class Tracker extends WeakReference<Object> {
+		private final int hash;
+		private final Throwable site;
+
+		/**
+		 * Creates a tracker for the given object which is enqueued in the
+		 * given queue when the object is garbage collected.
+		 * 
+		 * @param object
+		 *            the tracked object.
+		 * @param queue
+		 *            the queue.
+		 */
+		public Tracker(Object object, ReferenceQueue<Object> queue) {
+			super(object, queue);
+			this.hash = System.identityHashCode(object);
+			this.site = new Throwable("acquired here");
+		}
+	}
+}
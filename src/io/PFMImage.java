@@ -1,6 +1,14 @@
 package io;
 
+import metrics.PFMMetrics;
+import metrics.PFMMetrics.Counter;
+import metrics.PFMMetrics.Stage;
+import tonemap.GammaToneMapper;
+import tonemap.ToneMapper;
+import util.Parallel;
+
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.util.Arrays;
 
 /**
@@ -34,7 +42,8 @@ import java.util.Arrays;
  *          POSSIBILITY OF SUCH DAMAGE.
  */
 public class PFMImage {
-	private final float[] floats;
+	private float[] floats;
+	private final PFMBufferPool pool;
 	public final int width;
 	public final int height;
 
@@ -61,6 +70,70 @@ public class PFMImage {
 	 */
 	public PFMImage(int width, int height, float[] floats)
 			throws IllegalArgumentException, NullPointerException {
+		check(width, height, floats);
+
+		PFMMetrics.Span span = PFMMetrics.begin(Stage.COPY);
+		this.width = width;
+		this.height = height;
+		this.floats = Arrays.copyOf(floats, floats.length);
+		this.pool = null;
+		span.end(4L * floats.length, floats.length);
+		PFMMetrics.count(Counter.ALLOCATED_BYTES, 4L * floats.length);
+	}
+
+	/**
+	 * Creates a new image with the given dimensions which takes ownership of
+	 * the given array of floats instead of copying it.
+	 * 
+	 * When a pool is given, the array must have been acquired from that pool
+	 * and is returned to it when the image is disposed.
+	 * 
+	 * @param width
+	 *            The width of the image.
+	 * @param height
+	 *            The height of the image.
+	 * @param floats
+	 *            The floats of the image.
+	 * @param pool
+	 *            The pool the floats were acquired from or null.
+	 * @throws IllegalArgumentException
+	 *             When the width or height are smaller than or equal to zero.
+	 * @throws IllegalArgumentException
+	 *             When the length of the float array is not equal to
+	 *             width*height or 3*width*height.
+	 * @throws NullPointerException
+	 *             When the given float array is null.
+	 */
+	public PFMImage(int width, int height, float[] floats, PFMBufferPool pool)
+			throws IllegalArgumentException, NullPointerException {
+		check(width, height, floats);
+
+		this.width = width;
+		this.height = height;
+		this.floats = floats;
+		this.pool = pool;
+	}
+
+	/**
+	 * Checks whether the given dimensions and array of floats describe a valid
+	 * image.
+	 * 
+	 * @param width
+	 *            The width of the image.
+	 * @param height
+	 *            The height of the image.
+	 * @param floats
+	 *            The floats of the image.
+	 * @throws IllegalArgumentException
+	 *             When the width or height are smaller than or equal to zero.
+	 * @throws IllegalArgumentException
+	 *             When the length of the float array is not equal to
+	 *             width*height or 3*width*height.
+	 * @throws NullPointerException
+	 *             When the given float array is null.
+	 */
+	private static void check(int width, int height, float[] floats)
+			throws IllegalArgumentException, NullPointerException {
 		if (width <= 0)
 			throw new IllegalArgumentException(
 					"the width has to be larger than zero!");
@@ -76,13 +149,21 @@ public class PFMImage {
 			throw new IllegalArgumentException(String.format(
 					"the number of floats must match the resolution of "
 							+ "the image! the number of given floats is"
-							+ " %i, but should be %i for a gray image "
-							+ "or %i for a color image!", floats.length, res,
+							+ " %d, but should be %d for a gray image "
+							+ "or %d for a color image!", floats.length, res,
 					3 * res));
+	}
 
-		this.width = width;
-		this.height = height;
-		this.floats = Arrays.copyOf(floats, floats.length);
+	/**
+	 * Returns the floats of this image to the pool they were acquired from.
+	 * The image can no longer be used afterwards. Disposing an image which
+	 * does not originate from a pool has no effect.
+	 */
+	public synchronized void dispose() {
+		if (pool == null || floats == null)
+			return;
+		pool.releaseFloats(floats);
+		floats = null;
 	}
 
 	/**
@@ -171,28 +252,65 @@ public class PFMImage {
 	 * @return a Buffered Image representation of this image.
 	 */
 	public BufferedImage toBufferedImage(double gamma) {
+		return toBufferedImage(new GammaToneMapper(gamma));
+	}
+
+	/**
+	 * Converts this Portable Float Map image to a BufferedImage using the
+	 * given tone mapper. The rows are mapped in parallel directly into the
+	 * packed raster of the result.
+	 * 
+	 * @param mapper
+	 *            The tone mapper.
+	 * @throws NullPointerException
+	 *             When the given tone mapper is null.
+	 * @return a Buffered Image representation of this image.
+	 */
+	public BufferedImage toBufferedImage(ToneMapper mapper)
+			throws NullPointerException {
 		BufferedImage result = new BufferedImage(width, height,
 				BufferedImage.TYPE_INT_ARGB);
+		toARGB(mapper, ((DataBufferInt) result.getRaster().getDataBuffer())
+				.getData());
+		return result;
+	}
 
-		int[] rgba = new int[] { 0, 0, 0, 255 };
+	/**
+	 * Maps this Portable Float Map image into the given packed ARGB raster
+	 * using the given tone mapper. The raster is stored top row first, like
+	 * the raster of a BufferedImage, and the rows are mapped in parallel.
+	 * 
+	 * @param mapper
+	 *            The tone mapper.
+	 * @param argb
+	 *            The raster to store the packed pixels in.
+	 * @throws NullPointerException
+	 *             When the given tone mapper or raster is null.
+	 * @throws IllegalArgumentException
+	 *             When the raster is smaller than width*height.
+	 */
+	public void toARGB(final ToneMapper mapper, final int[] argb)
+			throws NullPointerException, IllegalArgumentException {
+		if (mapper == null)
+			throw new NullPointerException("the given tone mapper is null!");
+		if (argb == null)
+			throw new NullPointerException("the given raster is null!");
+		if (argb.length < width * height)
+			throw new IllegalArgumentException(
+					"the raster is smaller than the image!");
 
-		for (int i = 0; i < width * height; ++i) {
-			if (isGrayScale()) {
-				rgba[0] = toInt(getFloat(i), gamma);
-				rgba[1] = rgba[0];
-				rgba[2] = rgba[0];
-				result.getRaster().setPixel(i % width, height - 1 - i / width,
-						rgba);
-			} else {
-				rgba[0] = toInt(getFloat(3 * i), gamma);
-				rgba[1] = toInt(getFloat(3 * i + 1), gamma);
-				rgba[2] = toInt(getFloat(3 * i + 2), gamma);
-				result.getRaster().setPixel(i % width, height - 1 - i / width,
-						rgba);
+		PFMMetrics.Span span = PFMMetrics.begin(Stage.CONVERT);
+		final float[] floats = this.floats;
+		final int samples = isGrayScale() ? 1 : 3;
+		Parallel.forEach(0, height, new Parallel.Body() {
+			@Override
+			public void run(int from, int to) {
+				for (int y = from; y < to; ++y)
+					mapper.map(floats, samples * y * width, samples, argb,
+							(height - 1 - y) * width, width);
 			}
-		}
-
-		return result;
+		});
+		span.end(4L * width * height, floats.length);
 	}
 
 	/**
@@ -204,29 +322,33 @@ public class PFMImage {
 	 * @return a Buffered Image representation of this image.
 	 */
 	public BufferedImage toScaledBufferedImage(double gamma) {
+		PFMMetrics.Span span = PFMMetrics.begin(Stage.CONVERT);
 		BufferedImage result = new BufferedImage(width, height,
 				BufferedImage.TYPE_INT_ARGB);
 
 		int[] rgba = new int[] { 0, 0, 0, 255 };
 
+		// The gamma corrected floats go to a scratch array, so this image is
+		// left untouched.
+		float[] f = pool == null ? new float[nbOfFloats()] : pool
+				.acquireFloats(nbOfFloats());
 		double min = Double.POSITIVE_INFINITY;
 		double max = Double.NEGATIVE_INFINITY;
-		for (int i = 0; i < width * height; ++i) {
-			floats[i] = (float) Math.pow(floats[i], gamma);
-			if (floats[i] < min)
-				min = floats[i];
-			if (floats[i] > max)
-				max = floats[i];
+		for (int i = 0; i < f.length; ++i) {
+			f[i] = (float) Math.pow(floats[i], gamma);
+			if (f[i] < min)
+				min = f[i];
+			if (f[i] > max)
+				max = f[i];
 		}
 
-		float[] f = new float[nbOfFloats()];
 		double inv_range = 1.0 / (max - min);
-		for (int i = 0; i < width * height; ++i)
-			f[i] = (float) ((floats[i] - min) * inv_range);
+		for (int i = 0; i < f.length; ++i)
+			f[i] = (float) ((f[i] - min) * inv_range);
 
 		for (int i = 0; i < width * height; ++i) {
 			if (isGrayScale()) {
-				rgba[0] = clamp((int) (255.f * floats[i]), 0, 255);
+				rgba[0] = clamp((int) (255.f * f[i]), 0, 255);
 				rgba[1] = rgba[0];
 				rgba[2] = rgba[0];
 				result.getRaster().setPixel(i % width, height - 1 - i / width,
@@ -240,6 +362,10 @@ public class PFMImage {
 			}
 		}
 
+		if (pool != null)
+			pool.releaseFloats(f);
+
+		span.end(4L * width * height, nbOfFloats());
 		return result;
 	}
 
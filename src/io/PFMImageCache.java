@@ -0,0 +1,450 @@
+package io;
+
+import metrics.PFMMetrics;
+import metrics.PFMMetrics.Counter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe cache of decoded Portable Float Map images.
+ * 
+ * Images are keyed by their canonical path together with the last
+ * modification time and the size of the file, so a file which is rewritten on
+ * disk is read again and its previous version is dropped. The cache is
+ * bounded by the number of bytes occupied by the floats of the resident
+ * images (nbOfFloats() * 4) and evicts the least recently used images first. Concurrent requests for the same image which is
+ * not yet resident are coalesced into a single read.
+ * 
+ * The images returned by the cache are shared between all callers and must
+ * therefore not be modified.
+ * 
+ * @author Niels Billen
+ * @version 1.0
+ * 
+ *          Redistribution and use in source and binary forms, with or without
+ *          modification, are permitted provided that the following conditions
+ *          are met:
+ * 
+ *          - Redistributions of source code must retain the above copyright
+ *          notice, this list of conditions and the following disclaimer.
+ * 
+ *          - Redistributions in binary form must reproduce the above copyright
+ *          notice, this list of conditions and the following disclaimer in the
+ *          documentation and/or other materials provided with the distribution.
+ * 
+ *          THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *          "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *          LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *          FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *          COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *          INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *          BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *          LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *          CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *          LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *          ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *          POSSIBILITY OF SUCH DAMAGE.
+ */
+public class PFMImageCache {
+	/**
+	 * The number of segments, which must be a power of two.
+	 */
+	private static final int SEGMENTS = 16;
+
+	private final long maxBytes;
+	private final AtomicLong bytes = new AtomicLong();
+
+	/**
+	 * The resident images, split over segments by the hash of their path so
+	 * requests for different files rarely contend for the same monitor. All
+	 * the versions of a file end up in the same segment.
+	 */
+	private final Segment[] segments = new Segment[SEGMENTS];
+
+	/**
+	 * Serializes the threads which evict images.
+	 */
+	private final Object evictionLock = new Object();
+
+	/**
+	 * The reads which are currently in progress.
+	 */
+	private final ConcurrentHashMap<Key, FutureTask<PFMImage>> loading = new ConcurrentHashMap<Key, FutureTask<PFMImage>>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Creates a new cache which holds at most the given number of bytes of
+	 * decoded floats.
+	 * 
+	 * @param maxBytes
+	 *            the maximum number of bytes of decoded floats in the cache.
+	 * @throws IllegalArgumentException
+	 *             when the maximum number of bytes is negative.
+	 */
+	public PFMImageCache(long maxBytes) throws IllegalArgumentException {
+		if (maxBytes < 0)
+			throw new IllegalArgumentException(
+					"the maximum number of bytes cannot be negative!");
+		this.maxBytes = maxBytes;
+		for (int i = 0; i < SEGMENTS; ++i)
+			segments[i] = new Segment();
+	}
+
+	/**
+	 * Returns the image in the file specified by the given filename, reading
+	 * it when it is not in the cache.
+	 * 
+	 * @param filename
+	 *            name of the file to read the Portable Float Map from.
+	 * @throws IOException
+	 *             when an exception occurs during the reading of the file.
+	 * @return an object containing the Portable Float Map image.
+	 */
+	public PFMImage get(String filename) throws IOException {
+		return get(new File(filename));
+	}
+
+	/**
+	 * Returns the image in the given file, reading it when it is not in the
+	 * cache.
+	 * 
+	 * @param file
+	 *            file to read the Portable Float Map from.
+	 * @throws IOException
+	 *             when an exception occurs during the reading of the file.
+	 * @return an object containing the Portable Float Map image.
+	 */
+	public PFMImage get(final File file) throws IOException {
+		final Key key = new Key(file);
+
+		Segment segment = segmentFor(key);
+		synchronized (segment) {
+			Entry entry = segment.entries.get(key);
+			if (entry != null) {
+				entry.access = System.nanoTime();
+				hits.incrementAndGet();
+				PFMMetrics.count(Counter.CACHE_HITS, 1);
+				return entry.image;
+			}
+		}
+
+		FutureTask<PFMImage> task = new FutureTask<PFMImage>(
+				new Callable<PFMImage>() {
+					@Override
+					public PFMImage call() throws IOException {
+						PFMImage image = PFMReader.read(file);
+						put(key, image);
+						return image;
+					}
+				});
+		FutureTask<PFMImage> existing = loading.putIfAbsent(key, task);
+		if (existing == null) {
+			misses.incrementAndGet();
+			PFMMetrics.count(Counter.CACHE_MISSES, 1);
+			try {
+				task.run();
+			} finally {
+				loading.remove(key, task);
+			}
+		} else {
+			hits.incrementAndGet();
+			PFMMetrics.count(Counter.CACHE_HITS, 1);
+			task = existing;
+		}
+
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while waiting for "
+					+ file.getName() + "!", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * Adds the given image to the cache, replacing any other version of the
+	 * same file, and evicts the least recently used images until the cache
+	 * fits within its bounds again.
+	 * 
+	 * @param key
+	 *            the key of the image.
+	 * @param image
+	 *            the image to add.
+	 */
+	private void put(Key key, PFMImage image) {
+		long size = sizeOf(image);
+		if (size > maxBytes)
+			return;
+
+		Segment segment = segmentFor(key);
+		synchronized (segment) {
+			Entry previous = segment.entries.put(key, new Entry(image));
+			if (previous != null)
+				bytes.addAndGet(-sizeOf(previous.image));
+			bytes.addAndGet(size);
+
+			Key stale = segment.paths.put(key.path, key);
+			if (stale != null && !stale.equals(key)) {
+				Entry entry = segment.entries.remove(stale);
+				if (entry != null)
+					bytes.addAndGet(-sizeOf(entry.image));
+			}
+		}
+
+		if (bytes.get() > maxBytes)
+			evict();
+	}
+
+	/**
+	 * Evicts images until the cache fits within its bounds again. The least
+	 * recently used image of every segment is the eldest entry of its map, so
+	 * the victim is the least recently accessed among those. Only one monitor
+	 * is held at a time, so an image may be touched between choosing and
+	 * removing it, in which case the eldest image of the same segment is
+	 * evicted instead.
+	 */
+	private void evict() {
+		synchronized (evictionLock) {
+			while (bytes.get() > maxBytes) {
+				Segment victim = null;
+				long oldest = 0;
+				for (Segment segment : segments) {
+					synchronized (segment) {
+						if (segment.entries.isEmpty())
+							continue;
+						long access = segment.entries.values().iterator()
+								.next().access;
+						if (victim == null || access - oldest < 0) {
+							victim = segment;
+							oldest = access;
+						}
+					}
+				}
+				if (victim == null)
+					return;
+
+				synchronized (victim) {
+					Iterator<Map.Entry<Key, Entry>> it = victim.entries
+							.entrySet().iterator();
+					if (it.hasNext()) {
+						Map.Entry<Key, Entry> entry = it.next();
+						it.remove();
+						victim.paths.remove(entry.getKey().path, entry.getKey());
+						bytes.addAndGet(-sizeOf(entry.getValue().image));
+						evictions.incrementAndGet();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes all the images from the cache. The counters are left untouched.
+	 */
+	public void clear() {
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				for (Entry entry : segment.entries.values())
+					bytes.addAndGet(-sizeOf(entry.image));
+				segment.entries.clear();
+				segment.paths.clear();
+			}
+		}
+	}
+
+	/**
+	 * Returns the segment which holds the images of the file of the given key.
+	 * 
+	 * @param key
+	 *            the key.
+	 * @return the segment which holds the images of the file of the given key.
+	 */
+	private Segment segmentFor(Key key) {
+		int h = key.path.hashCode();
+		h ^= h >>> 16;
+		return segments[h & (SEGMENTS - 1)];
+	}
+
+	/**
+	 * Returns the number of bytes occupied by the given image.
+	 * 
+	 * @param image
+	 *            the image.
+	 * @return the number of bytes occupied by the given image.
+	 */
+	private static long sizeOf(PFMImage image) {
+		return 4L * image.nbOfFloats();
+	}
+
+	/**
+	 * Returns the maximum number of bytes of decoded floats in this cache.
+	 * 
+	 * @return the maximum number of bytes of decoded floats in this cache.
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Returns the number of bytes of decoded floats currently in this cache.
+	 * 
+	 * @return the number of bytes of decoded floats currently in this cache.
+	 */
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	/**
+	 * Returns the number of images currently in this cache.
+	 * 
+	 * @return the number of images currently in this cache.
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.entries.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Returns the number of requests which were answered without reading the
+	 * file, including requests which waited for a read already in progress.
+	 * 
+	 * @return the number of cache hits.
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of requests which required the file to be read.
+	 * 
+	 * @return the number of cache misses.
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the number of images which were evicted to keep the cache within
+	 * its bounds.
+	 * 
+	 * @return the number of evictions.
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * A part of the cache with its own monitor and its own least recently used
+	 * order. All accesses are guarded by the monitor of the segment.
+	 */
+	private static final class Segment {
+		/**
+		 * The resident images in least recently used order.
+		 */
+		private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(
+				16, 0.75f, true);
+
+		/**
+		 * The key of the resident version of every file.
+		 */
+		private final HashMap<String, Key> paths = new HashMap<String, Key>();
+	}
+
+	/**
+	 * A resident image together with the time it was last accessed.
+	 */
+	private static final class Entry {
+		private final PFMImage image;
+		private volatile long access = System.nanoTime();
+
+		/**
+		 * Creates a new entry for the given image.
+		 * 
+		 * @param image
+		 *            the image.
+		 */
+		public Entry(PFMImage image) {
+			this.image = image;
+		}
+	}
+
+	/**
+	 * Identifies the contents of a file by its canonical path, last
+	 * modification time and size.
+	 */
+	private static final class Key {
+		private final String path;
+		private final long modified;
+		private final long length;
+
+		/**
+		 * Creates a key for the current contents of the given file.
+		 * 
+		 * @param file
+		 *            the file.
+		 * @throws IOException
+		 *             when the canonical path cannot be determined.
+		 */
+		public Key(File file) throws IOException {
+			this.path = file.getCanonicalPath();
+			this.modified = file.lastModified();
+			this.length = file.length();
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.lang.Object#hashCode()
+		 */
+		@Override
+		public int hashCode() {
+			int result = path.hashCode();
+			result = 31 * result + (int) (modified ^ (modified >>> 32));
+			result = 31 * result + (int) (length ^ (length >>> 32));
+			return result;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return modified == other.modified && length == other.length
+					&& path.equals(other.path);
+		}
+	}
+}
@@ -1,10 +1,17 @@
 package io;
 
+import metrics.PFMMetrics;
+import metrics.PFMMetrics.Counter;
+import metrics.PFMMetrics.Stage;
+import util.PFMResampler;
+
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 
 /**
  * Implementation of a class capable of reading Portable Float Map images.
@@ -60,8 +67,172 @@ public class PFMReader {
 	 * @return an object containing the Portable Float Map image.
 	 */
 	public static PFMImage read(File file) throws IOException {
+		return read(file, null);
+	}
+
+	/**
+	 * Reads a Portable Float Map from the file specified by the given filename
+	 * drawing the buffers from the given pool.
+	 * 
+	 * @param filename
+	 *            name of the file to read the Portable Float Map from.
+	 * @param pool
+	 *            the pool to draw the buffers from or null.
+	 * @throws IOException
+	 *             when an exception occurs during the reading of the file.
+	 * @return an object containing the Portable Float Map image. When a pool
+	 *         is given, the image should be disposed when it is no longer
+	 *         needed.
+	 */
+	public static PFMImage read(String filename, PFMBufferPool pool)
+			throws IOException {
+		return read(new File(filename), pool);
+	}
+
+	/**
+	 * Reads a Portable Float Map from the given file drawing the buffers from
+	 * the given pool.
+	 * 
+	 * The raw bytes are read into a buffer which is returned to the pool
+	 * before this method returns, while the decoded floats are owned by the
+	 * resulting image and are returned to the pool when it is disposed.
+	 * 
+	 * @param file
+	 *            file to read the Portable Float Map from.
+	 * @param pool
+	 *            the pool to draw the buffers from or null.
+	 * @throws IOException
+	 *             when an exception occurs during the reading of the file.
+	 * @return an object containing the Portable Float Map image. When a pool
+	 *         is given, the image should be disposed when it is no longer
+	 *         needed.
+	 */
+	public static PFMImage read(File file, PFMBufferPool pool)
+			throws IOException {
+		PFMMetrics.Span span = PFMMetrics.begin(Stage.HEADER);
 		FileInputStream reader = new FileInputStream(file);
+		Header header = null;
+		try {
+			header = readHeader(reader);
+		} finally {
+			if (header == null)
+				reader.close();
+		}
+		span.end(0, 0);
+		final int width = header.width, height = header.height;
+		final int samples = header.samples;
+		final float inv_scale = header.inv_scale;
+		final boolean littleEndian = header.littleEndian;
+
+		/********************************************************
+		 * Read the data
+		 ********************************************************/
+		int nbOfFloats = samples * width * height;
+		int size = nbOfFloats * 4;
+		span = PFMMetrics.begin(Stage.READ);
+		ByteBuffer buffer = pool == null ? ByteBuffer.allocate(size) : pool
+				.acquireBuffer(size);
+		if (pool == null)
+			PFMMetrics.count(Counter.ALLOCATED_BYTES, 2L * size);
+
+		try {
+			FileChannel channel = reader.getChannel();
+			while (buffer.hasRemaining() && channel.read(buffer) > 0)
+				;
+		} catch (IOException e) {
+			if (pool != null)
+				pool.releaseBuffer(buffer);
+			throw e;
+		} finally {
+			reader.close();
+		}
 
+		// A truncated file leaves the remaining floats at zero.
+		while (buffer.hasRemaining())
+			buffer.put((byte) 0);
+		buffer.flip();
+		span.end(size, 0);
+
+		span = PFMMetrics.begin(Stage.DECODE);
+		float[] floats = pool == null ? new float[nbOfFloats] : pool
+				.acquireFloats(nbOfFloats);
+		buffer.order(littleEndian ? ByteOrder.LITTLE_ENDIAN
+				: ByteOrder.BIG_ENDIAN).asFloatBuffer().get(floats);
+		if (inv_scale != 1.f)
+			for (int i = 0; i < nbOfFloats; ++i)
+				floats[i] *= inv_scale;
+		span.end(size, nbOfFloats);
+
+		if (pool != null)
+			pool.releaseBuffer(buffer);
+
+		return new PFMImage(width, height, floats, pool);
+	}
+
+	/**
+	 * Reads a Portable Float Map from the file specified by the given filename
+	 * and resamples it to the given size while it is being read.
+	 * 
+	 * @param filename
+	 *            name of the file to read the Portable Float Map from.
+	 * @param width
+	 *            the width of the resampled image.
+	 * @param height
+	 *            the height of the resampled image.
+	 * @param filter
+	 *            the filter used to resample the image.
+	 * @throws IOException
+	 *             when an exception occurs during the reading of the file.
+	 * @return an object containing the resampled Portable Float Map image.
+	 */
+	public static PFMImage readResampled(String filename, int width,
+			int height, PFMResampler.Filter filter) throws IOException {
+		return readResampled(new File(filename), width, height, filter);
+	}
+
+	/**
+	 * Reads a Portable Float Map from the given file and resamples it to the
+	 * given size while it is being read, so the full resolution image is
+	 * never held in memory.
+	 * 
+	 * @param file
+	 *            file to read the Portable Float Map from.
+	 * @param width
+	 *            the width of the resampled image.
+	 * @param height
+	 *            the height of the resampled image.
+	 * @param filter
+	 *            the filter used to resample the image.
+	 * @throws IOException
+	 *             when an exception occurs during the reading of the file.
+	 * @return an object containing the resampled Portable Float Map image.
+	 */
+	public static PFMImage readResampled(File file, int width, int height,
+			PFMResampler.Filter filter) throws IOException {
+		PFMRowReader reader = new PFMRowReader(file);
+		try {
+			return new PFMResampler(filter, reader.width, reader.height,
+					width, height).resample(reader);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Reads and parses the header of a Portable Float Map from the given
+	 * stream. The stream is positioned at the first byte of the data
+	 * afterwards.
+	 * 
+	 * @param reader
+	 *            the stream to read the header from.
+	 * @throws IOException
+	 *             when an exception occurs during the reading of the stream.
+	 * @throws IllegalArgumentException
+	 *             when the header is not valid.
+	 * @return the parsed header.
+	 */
+	static Header readHeader(InputStream reader) throws IOException,
+			IllegalArgumentException {
 		int lines = 0;
 
 		/*****************************************************
@@ -70,11 +241,13 @@ public class PFMReader {
 		String[] header = new String[] { "", "", "" };
 
 		while (lines < 3) {
-			char c = (char) reader.read();
+			int c = reader.read();
+			if (c < 0)
+				throw new IOException("unexpected end of file in the header!");
 			if (c == '\n')
 				++lines;
 			else
-				header[lines] += c;
+				header[lines] += (char) c;
 		}
 
 		/*****************************************************
@@ -87,11 +260,9 @@ public class PFMReader {
 		else if (header[0].contains("PF"))
 			type = 1;
 
-		if (type < 0) {
-			reader.close();
+		if (type < 0)
 			throw new IllegalArgumentException(
 					"header does not contain a valid PFM format!");
-		}
 
 		int width = -1, height = -1;
 		String[] dimension = header[1].split(" ");
@@ -99,49 +270,54 @@ public class PFMReader {
 			width = Integer.parseInt(dimension[0]);
 			height = Integer.parseInt(dimension[1]);
 		} catch (NumberFormatException e) {
-			reader.close();
 			throw new IllegalArgumentException(
 					"header does not contain a valid size!");
 		} catch (ArrayIndexOutOfBoundsException e) {
-			reader.close();
 			throw new IllegalArgumentException(
 					"header does not contain a valid size!");
 		}
-		if (width < 0 || height < 0) {
-			reader.close();
+		if (width < 0 || height < 0)
 			throw new IllegalArgumentException(
 					"header does not contain a valid size!");
-		}
 		float scale = -1;
 		try {
 			scale = Float.parseFloat(header[2]);
 		} catch (NumberFormatException e) {
-			reader.close();
 			throw new IllegalArgumentException(
 					"header does not contain a valid scale!");
 		}
-		float inv_scale = 1.f / Math.abs(scale);
-		boolean littleEndian = scale < 0;
-
-		/********************************************************
-		 * Read the data
-		 ********************************************************/
-		int samples = (type == 0 ? 1 : 3);
-		int size = width * height * 4 * samples;
-		byte[] bytes = new byte[size];
-		int read, offset = 0;
-
-		while ((read = reader.read(bytes, offset, size - offset)) > 0)
-			offset += read;
-
-		reader.close();
+		return new Header(width, height, type == 0 ? 1 : 3, scale);
+	}
 
-		ByteBuffer buffer = ByteBuffer.wrap(bytes).order(
-				littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
-		float[] floats = new float[samples * width * height];
-		for (int i = 0; i < samples * width * height; ++i)
-			floats[i] = buffer.getFloat() * inv_scale;
+	/**
+	 * The parsed header of a Portable Float Map.
+	 */
+	static final class Header {
+		final int width;
+		final int height;
+		final int samples;
+		final float inv_scale;
+		final boolean littleEndian;
 
-		return new PFMImage(width, height, floats);
+		/**
+		 * Creates a new header.
+		 * 
+		 * @param width
+		 *            the width of the image.
+		 * @param height
+		 *            the height of the image.
+		 * @param samples
+		 *            the number of floats per pixel.
+		 * @param scale
+		 *            the scale of the image, which is negative for little
+		 *            endian data.
+		 */
+		Header(int width, int height, int samples, float scale) {
+			this.width = width;
+			this.height = height;
+			this.samples = samples;
+			this.inv_scale = 1.f / Math.abs(scale);
+			this.littleEndian = scale < 0;
+		}
 	}
 }
@@ -0,0 +1,212 @@
+package io;
+
+import metrics.PFMMetrics;
+import metrics.PFMMetrics.Counter;
+import metrics.PFMMetrics.Stage;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Reads the rows of a Portable Float Map one band at a time, so an image can
+ * be processed without holding all of its floats in memory.
+ * 
+ * Rows are returned in the order in which they are stored in the file, which
+ * is the same order as the floats of a {@link PFMImage}: the first row is the
+ * bottom row of the image.
+ * 
+ * @author Niels Billen
+ * @version 1.0
+ * 
+ *          Redistribution and use in source and binary forms, with or without
+ *          modification, are permitted provided that the following conditions
+ *          are met:
+ * 
+ *          - Redistributions of source code must retain the above copyright
+ *          notice, this list of conditions and the following disclaimer.
+ * 
+ *          - Redistributions in binary form must reproduce the above copyright
+ *          notice, this list of conditions and the following disclaimer in the
+ *          documentation and/or other materials provided with the distribution.
+ * 
+ *          THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *          "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *          LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *          FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *          COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *          INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *          BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *          LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *          CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *          LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *          ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *          POSSIBILITY OF SUCH DAMAGE.
+ */
+public class PFMRowReader implements Closeable {
+	public final int width;
+	public final int height;
+	private final int samples;
+	private final float inv_scale;
+	private final ByteOrder order;
+	private final InputStream reader;
+	private byte[] bytes = new byte[0];
+	private int row = 0;
+
+	/**
+	 * Opens the Portable Float Map in the file specified by the given
+	 * filename and reads its header.
+	 * 
+	 * @param filename
+	 *            name of the file to read the Portable Float Map from.
+	 * @throws IOException
+	 *             when an exception occurs during the reading of the file.
+	 * @throws IllegalArgumentException
+	 *             when the width or height in the header are smaller than or
+	 *             equal to zero.
+	 */
+	public PFMRowReader(String filename) throws IOException,
+			IllegalArgumentException {
+		this(new File(filename));
+	}
+
+	/**
+	 * Opens the Portable Float Map in the given file and reads its header.
+	 * 
+	 * @param file
+	 *            file to read the Portable Float Map from.
+	 * @throws IOException
+	 *             when an exception occurs during the reading of the file.
+	 * @throws IllegalArgumentException
+	 *             when the width or height in the header are smaller than or
+	 *             equal to zero.
+	 */
+	public PFMRowReader(File file) throws IOException,
+			IllegalArgumentException {
+		InputStream reader = new BufferedInputStream(new FileInputStream(file));
+		PFMReader.Header header = null;
+		try {
+			header = PFMReader.readHeader(reader);
+		} finally {
+			if (header == null)
+				reader.close();
+		}
+		if (header.width <= 0 || header.height <= 0) {
+			reader.close();
+			throw new IllegalArgumentException(
+					"header does not contain a valid size!");
+		}
+		this.reader = reader;
+		this.width = header.width;
+		this.height = header.height;
+		this.samples = header.samples;
+		this.inv_scale = header.inv_scale;
+		this.order = header.littleEndian ? ByteOrder.LITTLE_ENDIAN
+				: ByteOrder.BIG_ENDIAN;
+	}
+
+	/**
+	 * Returns whether this image is a gray scale image.
+	 * 
+	 * @return whether this image is a gray scale image.
+	 */
+	public boolean isGrayScale() {
+		return samples == 1;
+	}
+
+	/**
+	 * Returns whether this image is a color image.
+	 * 
+	 * @return whether this image is a color image.
+	 */
+	public boolean isColor() {
+		return samples == 3;
+	}
+
+	/**
+	 * Returns the number of floats in a single row of this image.
+	 * 
+	 * @return the number of floats in a single row of this image.
+	 */
+	public int nbOfFloatsPerRow() {
+		return samples * width;
+	}
+
+	/**
+	 * Returns the index of the next row which will be read.
+	 * 
+	 * @return the index of the next row which will be read.
+	 */
+	public int getRow() {
+		return row;
+	}
+
+	/**
+	 * Reads at most the given number of rows into the given array starting at
+	 * the given offset. Rows which are missing from a truncated file are
+	 * filled with zeros.
+	 * 
+	 * @param floats
+	 *            the array to store the floats in.
+	 * @param offset
+	 *            the index of the first float to store.
+	 * @param rows
+	 *            the maximum number of rows to read.
+	 * @throws IOException
+	 *             when an exception occurs during the reading of the file.
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             when the rows do not fit in the given array.
+	 * @return the number of rows which were read, which is zero when all the
+	 *         rows have been read.
+	 */
+	public int readRows(float[] floats, int offset, int rows)
+			throws IOException, ArrayIndexOutOfBoundsException {
+		rows = Math.max(0, Math.min(rows, height - row));
+		final int count = rows * nbOfFloatsPerRow();
+		if (offset < 0 || offset + count > floats.length)
+			throw new ArrayIndexOutOfBoundsException(
+					"the rows do not fit in the given array!");
+
+		final int size = 4 * count;
+		if (bytes.length < size) {
+			bytes = new byte[size];
+			PFMMetrics.count(Counter.ALLOCATED_BYTES, size);
+		}
+
+		PFMMetrics.Span span = PFMMetrics.begin(Stage.READ);
+
+		int read, total = 0;
+		while (total < size
+				&& (read = reader.read(bytes, total, size - total)) > 0)
+			total += read;
+		Arrays.fill(bytes, total, size, (byte) 0);
+		span.end(size, 0);
+
+		span = PFMMetrics.begin(Stage.DECODE);
+		ByteBuffer.wrap(bytes, 0, size).order(order).asFloatBuffer()
+				.get(floats, offset, count);
+		if (inv_scale != 1.f)
+			for (int i = offset; i < offset + count; ++i)
+				floats[i] *= inv_scale;
+		span.end(size, count);
+
+		row += rows;
+		return rows;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+}
@@ -0,0 +1,384 @@
+package metrics;
+
+import jdk.jfr.FlightRecorder;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * A lightweight registry of metrics about the reading, decoding, conversion
+ * and comparison of Portable Float Map images.
+ * 
+ * Every stage records the number of times it ran, its total and maximum
+ * duration and the number of bytes and floats it processed. Besides the
+ * stages, counters keep track of allocations and of cache and pool hits.
+ * 
+ * The registry is disabled by default and can be enabled with
+ * {@link #setEnabled(boolean)} or the system property pfm.metrics. Every
+ * stage and counter is also reported as a JDK Flight Recorder event when a
+ * recording with the pfm events enabled is running. When neither the
+ * registry nor a recording is enabled, recording a stage only checks whether
+ * the Flight Recorder has been initialized and the event classes are not even
+ * loaded, since loading them is expensive.
+ * 
+ * This class is threadsafe.
+ * 
+ * @author Niels Billen
+ * @version 1.0
+ * 
+ *          Redistribution and use in source and binary forms, with or without
+ *          modification, are permitted provided that the following conditions
+ *          are met:
+ * 
+ *          - Redistributions of source code must retain the above copyright
+ *          notice, this list of conditions and the following disclaimer.
+ * 
+ *          - Redistributions in binary form must reproduce the above copyright
+ *          notice, this list of conditions and the following disclaimer in the
+ *          documentation and/or other materials provided with the distribution.
+ * 
+ *          THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *          "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *          LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *          FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *          COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *          INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *          BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *          LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *          CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *          LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *          ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *          POSSIBILITY OF SUCH DAMAGE.
+ */
+public class PFMMetrics {
+	/**
+	 * The stages which are measured.
+	 */
+	public enum Stage {
+		/**
+		 * Reading and parsing the header of a file.
+		 */
+		HEADER,
+
+		/**
+		 * Reading the raw bytes of the raster of a file.
+		 */
+		READ,
+
+		/**
+		 * Decoding the raw bytes to floats.
+		 */
+		DECODE,
+
+		/**
+		 * Copying the floats of an image.
+		 */
+		COPY,
+
+		/**
+		 * Converting an image to a displayable image.
+		 */
+		CONVERT,
+
+		/**
+		 * Comparing two images.
+		 */
+		COMPARE,
+
+		/**
+		 * Resampling an image to another size.
+		 */
+		RESAMPLE
+	}
+
+	/**
+	 * The events which are counted.
+	 */
+	public enum Counter {
+		/**
+		 * The number of bytes of new arrays and buffers.
+		 */
+		ALLOCATED_BYTES,
+
+		/**
+		 * The number of images found in a cache.
+		 */
+		CACHE_HITS,
+
+		/**
+		 * The number of images not found in a cache.
+		 */
+		CACHE_MISSES,
+
+		/**
+		 * The number of arrays and buffers reused from a pool.
+		 */
+		POOL_HITS,
+
+		/**
+		 * The number of arrays and buffers a pool had to allocate.
+		 */
+		POOL_MISSES
+	}
+
+	private static volatile boolean enabled = Boolean
+			.getBoolean("pfm.metrics");
+
+	private static final int STAGES = Stage.values().length;
+	private static final LongAdder[] counts = adders(STAGES);
+	private static final LongAdder[] nanos = adders(STAGES);
+	private static final LongAdder[] bytes = adders(STAGES);
+	private static final LongAdder[] floats = adders(STAGES);
+	private static final LongAccumulator[] maxNanos = new LongAccumulator[STAGES];
+	private static final LongAdder[] counters = adders(Counter.values().length);
+
+	static {
+		for (int i = 0; i < STAGES; ++i)
+			maxNanos[i] = new LongAccumulator(new LongBinaryOperator() {
+				@Override
+				public long applyAsLong(long left, long right) {
+					return Math.max(left, right);
+				}
+			}, 0);
+	}
+
+	/**
+	 * The span returned when nothing is measured.
+	 */
+	private static final Span NONE = new Span(null, 0, null);
+
+	/**
+	 * Returns whether the registry is enabled.
+	 * 
+	 * @return whether the registry is enabled.
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Enables or disables the registry. Flight Recorder events are reported
+	 * regardless, as long as a recording enables them.
+	 * 
+	 * @param enabled
+	 *            whether the registry is enabled.
+	 */
+	public static void setEnabled(boolean enabled) {
+		PFMMetrics.enabled = enabled;
+	}
+
+	/**
+	 * Starts measuring the given stage.
+	 * 
+	 * @param stage
+	 *            the stage.
+	 * @return the span which has to be ended when the stage completes.
+	 */
+	public static Span begin(Stage stage) {
+		StageEvent event = null;
+		if (FlightRecorder.isInitialized()) {
+			event = new StageEvent();
+			if (event.isEnabled())
+				event.begin();
+			else
+				event = null;
+		}
+		if (!enabled && event == null)
+			return NONE;
+		return new Span(stage, System.nanoTime(), event);
+	}
+
+	/**
+	 * Adds the given amount to the given counter.
+	 * 
+	 * @param counter
+	 *            the counter.
+	 * @param amount
+	 *            the amount to add.
+	 */
+	public static void count(Counter counter, long amount) {
+		if (enabled)
+			counters[counter.ordinal()].add(amount);
+		if (FlightRecorder.isInitialized()) {
+			CounterEvent event = new CounterEvent();
+			if (event.shouldCommit()) {
+				event.counter = counter.name();
+				event.amount = amount;
+				event.commit();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of times the given stage completed.
+	 * 
+	 * @param stage
+	 *            the stage.
+	 * @return the number of times the given stage completed.
+	 */
+	public static long getCount(Stage stage) {
+		return counts[stage.ordinal()].sum();
+	}
+
+	/**
+	 * Returns the total duration of the given stage in nanoseconds.
+	 * 
+	 * @param stage
+	 *            the stage.
+	 * @return the total duration of the given stage in nanoseconds.
+	 */
+	public static long getNanos(Stage stage) {
+		return nanos[stage.ordinal()].sum();
+	}
+
+	/**
+	 * Returns the longest duration of the given stage in nanoseconds.
+	 * 
+	 * @param stage
+	 *            the stage.
+	 * @return the longest duration of the given stage in nanoseconds.
+	 */
+	public static long getMaxNanos(Stage stage) {
+		return maxNanos[stage.ordinal()].get();
+	}
+
+	/**
+	 * Returns the total number of bytes processed by the given stage.
+	 * 
+	 * @param stage
+	 *            the stage.
+	 * @return the total number of bytes processed by the given stage.
+	 */
+	public static long getBytes(Stage stage) {
+		return bytes[stage.ordinal()].sum();
+	}
+
+	/**
+	 * Returns the total number of floats processed by the given stage.
+	 * 
+	 * @param stage
+	 *            the stage.
+	 * @return the total number of floats processed by the given stage.
+	 */
+	public static long getFloats(Stage stage) {
+		return floats[stage.ordinal()].sum();
+	}
+
+	/**
+	 * Returns the value of the given counter.
+	 * 
+	 * @param counter
+	 *            the counter.
+	 * @return the value of the given counter.
+	 */
+	public static long get(Counter counter) {
+		return counters[counter.ordinal()].sum();
+	}
+
+	/**
+	 * Resets all the stages and counters to zero.
+	 */
+	public static void reset() {
+		for (int i = 0; i < STAGES; ++i) {
+			counts[i].reset();
+			nanos[i].reset();
+			bytes[i].reset();
+			floats[i].reset();
+			maxNanos[i].reset();
+		}
+		for (LongAdder counter : counters)
+			counter.reset();
+	}
+
+	/**
+	 * Prints a summary of all the stages and counters to the given stream.
+	 * 
+	 * @param out
+	 *            the stream to print to.
+	 */
+	public static void print(PrintStream out) {
+		// @formatter:off
+		out.println(String.format("%-8s %8s %12s %12s %14s %14s", "stage", "count", "total ms", "max ms", "bytes", "floats"));
+		// @formatter:on
+		for (Stage stage : Stage.values())
+			out.println(String.format("%-8s %8d %12.3f %12.3f %14d %14d",
+					stage.name().toLowerCase(), getCount(stage),
+					getNanos(stage) * 1e-6, getMaxNanos(stage) * 1e-6,
+					getBytes(stage), getFloats(stage)));
+		for (Counter counter : Counter.values())
+			out.println(String.format("%-16s %14d",
+					counter.name().toLowerCase(), get(counter)));
+	}
+
+	/**
+	 * Creates an array of the given number of adders.
+	 * 
+	 * @param n
+	 *            the number of adders.
+	 * @return an array of the given number of adders.
+	 */
+	private static LongAdder[] adders(int n) {
+		LongAdder[] result = new LongAdder[n];
+		for (int i = 0; i < n; ++i)
+			result[i] = new LongAdder();
+		return result;
+	}
+
+	/**
+	 * A measurement of a single run of a stage.
+	 */
+	public static final class Span {
+		private final Stage stage;
+		private final long start;
+		private final StageEvent event;
+
+		/**
+		 * Creates a new span.
+		 * 
+		 * @param stage
+		 *            the stage or null when nothing is measured.
+		 * @param start
+		 *            the start of the span in nanoseconds.
+		 * @param event
+		 *            the Flight Recorder event or null.
+		 */
+		private Span(Stage stage, long start, StageEvent event) {
+			this.stage = stage;
+			this.start = start;
+			this.event = event;
+		}
+
+		/**
+		 * Ends this span.
+		 * 
+		 * @param bytes
+		 *            the number of bytes processed by the stage.
+		 * @param floats
+		 *            the number of floats processed by the stage.
+		 */
+		public void end(long bytes, long floats) {
+			if (stage == null)
+				return;
+			final long duration = System.nanoTime() - start;
+			if (enabled) {
+				final int i = stage.ordinal();
+				counts[i].increment();
+				nanos[i].add(duration);
+				maxNanos[i].accumulate(duration);
+				PFMMetrics.bytes[i].add(bytes);
+				PFMMetrics.floats[i].add(floats);
+			}
+			if (event != null) {
+				event.end();
+				if (event.shouldCommit()) {
+					event.stage = stage.name();
+					event.bytes = bytes;
+					event.floats = floats;
+					event.commit();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package tonemap;
+
+/**
+ * A filmic tone mapper which applies the rational fit of the ACES reference
+ * rendering transform by Krzysztof Narkowicz to every exposed channel.
+ * 
+ * The fit expects scene values which are exposed roughly 0.6 times lower than
+ * for a linear display, so an exposure of 0.6 reproduces the usual look.
+ * 
+ * @author Niels Billen
+ * @version 1.0
+ * 
+ *          Redistribution and use in source and binary forms, with or without
+ *          modification, are permitted provided that the following conditions
+ *          are met:
+ * 
+ *          - Redistributions of source code must retain the above copyright
+ *          notice, this list of conditions and the following disclaimer.
+ * 
+ *          - Redistributions in binary form must reproduce the above copyright
+ *          notice, this list of conditions and the following disclaimer in the
+ *          documentation and/or other materials provided with the distribution.
+ * 
+ *          THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *          "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *          LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *          FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *          COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *          INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *          BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *          LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *          CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *          LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *          ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *          POSSIBILITY OF SUCH DAMAGE.
+ */
+public class ACESToneMapper implements ToneMapper {
+	private final float exposure;
+	private final Encoding encoding;
+
+	/**
+	 * Creates a new ACES filmic tone mapper.
+	 * 
+	 * @param exposure
+	 *            the factor the floats are multiplied with before the curve is
+	 *            applied.
+	 * @param encoding
+	 *            the encoding of the mapped values.
+	 * @throws NullPointerException
+	 *             when the given encoding is null.
+	 */
+	public ACESToneMapper(double exposure, Encoding encoding)
+			throws NullPointerException {
+		if (encoding == null)
+			throw new NullPointerException("the given encoding is null!");
+		this.exposure = (float) exposure;
+		this.encoding = encoding;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see tonemap.ToneMapper#map(float[], int, int, int[], int, int)
+	 */
+	@Override
+	public void map(float[] src, int srcOffset, int samples, int[] dst,
+			int dstOffset, int count) {
+		final int gs = samples == 1 ? 0 : 1;
+		for (int i = 0, o = srcOffset; i < count; ++i, o += samples)
+			dst[dstOffset + i] = encoding.encode(curve(exposure * src[o]),
+					curve(exposure * src[o + gs]),
+					curve(exposure * src[o + 2 * gs]));
+	}
+
+	/**
+	 * Applies the filmic curve to the given value.
+	 * 
+	 * @param x
+	 *            the exposed value.
+	 * @return the display value, which is clamped by the encoding.
+	 */
+	private static float curve(float x) {
+		if (!(x > 0.f))
+			return 0.f;
+		return (x * (2.51f * x + 0.03f)) / (x * (2.43f * x + 0.59f) + 0.14f);
+	}
+}
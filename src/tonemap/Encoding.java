@@ -0,0 +1,121 @@
+package tonemap;
+
+/**
+ * Encodes display-referred values in the range [0,1] to 8-bit channel values
+ * through a lookup table, which avoids evaluating a power function for every
+ * channel of every pixel.
+ * 
+ * The table has 65536 entries, so the encoded value deviates at most one
+ * step from the exact encoding, except in the darkest tones of very steep
+ * gamma curves.
+ * 
+ * @author Niels Billen
+ * @version 1.0
+ * 
+ *          Redistribution and use in source and binary forms, with or without
+ *          modification, are permitted provided that the following conditions
+ *          are met:
+ * 
+ *          - Redistributions of source code must retain the above copyright
+ *          notice, this list of conditions and the following disclaimer.
+ * 
+ *          - Redistributions in binary form must reproduce the above copyright
+ *          notice, this list of conditions and the following disclaimer in the
+ *          documentation and/or other materials provided with the distribution.
+ * 
+ *          THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *          "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *          LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *          FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *          COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *          INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *          BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *          LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *          CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *          LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *          ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *          POSSIBILITY OF SUCH DAMAGE.
+ */
+public final class Encoding {
+	private static final int SIZE = 1 << 16;
+
+	/**
+	 * Encodes values linearly.
+	 */
+	public static final Encoding LINEAR = new Encoding(1.0, false);
+
+	/**
+	 * Encodes values with the sRGB transfer function.
+	 */
+	public static final Encoding SRGB = new Encoding(2.4, true);
+
+	private final byte[] lut = new byte[SIZE];
+
+	/**
+	 * Creates a new encoding.
+	 * 
+	 * @param gamma
+	 *            the gamma of the encoding.
+	 * @param srgb
+	 *            whether the sRGB transfer function is used.
+	 */
+	private Encoding(double gamma, boolean srgb) {
+		final double inv_gamma = 1.0 / gamma;
+		for (int i = 0; i < SIZE; ++i) {
+			double v = i / (double) (SIZE - 1);
+			if (srgb)
+				v = v <= 0.0031308 ? 12.92 * v : 1.055 * Math.pow(v,
+						inv_gamma) - 0.055;
+			else
+				v = Math.pow(v, inv_gamma);
+			lut[i] = (byte) Math.min(255, Math.max(0, Math.round(255 * v)));
+		}
+	}
+
+	/**
+	 * Returns an encoding which applies a gamma correction.
+	 * 
+	 * @param gamma
+	 *            the gamma, the values are raised to the power 1/gamma.
+	 * @throws IllegalArgumentException
+	 *             when the gamma is smaller than or equal to zero.
+	 * @return an encoding which applies the given gamma correction.
+	 */
+	public static Encoding gamma(double gamma) throws IllegalArgumentException {
+		if (!(gamma > 0))
+			throw new IllegalArgumentException(
+					"the gamma has to be larger than zero!");
+		return new Encoding(gamma, false);
+	}
+
+	/**
+	 * Encodes the given value. Values outside the range [0,1] are clamped and
+	 * NaN is encoded as zero.
+	 * 
+	 * @param v
+	 *            the value to encode.
+	 * @return the encoded value in the range [0,255].
+	 */
+	public int encode(float v) {
+		if (!(v > 0.f))
+			return lut[0] & 0xFF;
+		if (v >= 1.f)
+			return lut[SIZE - 1] & 0xFF;
+		return lut[(int) (v * (SIZE - 1) + 0.5f)] & 0xFF;
+	}
+
+	/**
+	 * Encodes the given color as an opaque packed ARGB integer.
+	 * 
+	 * @param r
+	 *            the red channel.
+	 * @param g
+	 *            the green channel.
+	 * @param b
+	 *            the blue channel.
+	 * @return the encoded color as a packed ARGB integer.
+	 */
+	public int encode(float r, float g, float b) {
+		return 0xFF000000 | encode(r) << 16 | encode(g) << 8 | encode(b);
+	}
+}
@@ -0,0 +1,69 @@
+package tonemap;
+
+/**
+ * A tone mapper which scales the floats by an exposure expressed in stops and
+ * clips the result to the range [0,1] before encoding it.
+ * 
+ * @author Niels Billen
+ * @version 1.0
+ * 
+ *          Redistribution and use in source and binary forms, with or without
+ *          modification, are permitted provided that the following conditions
+ *          are met:
+ * 
+ *          - Redistributions of source code must retain the above copyright
+ *          notice, this list of conditions and the following disclaimer.
+ * 
+ *          - Redistributions in binary form must reproduce the above copyright
+ *          notice, this list of conditions and the following disclaimer in the
+ *          documentation and/or other materials provided with the distribution.
+ * 
+ *          THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *          "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *          LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *          FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *          COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *          INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *          BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *          LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *          CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *          LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *          ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *          POSSIBILITY OF SUCH DAMAGE.
+ */
+public class ExposureToneMapper implements ToneMapper {
+	private final float scale;
+	private final Encoding encoding;
+
+	/**
+	 * Creates a new exposure tone mapper.
+	 * 
+	 * @param stops
+	 *            the exposure in stops, the floats are multiplied by 2^stops.
+	 * @param encoding
+	 *            the encoding of the clipped values.
+	 * @throws NullPointerException
+	 *             when the given encoding is null.
+	 */
+	public ExposureToneMapper(double stops, Encoding encoding)
+			throws NullPointerException {
+		if (encoding == null)
+			throw new NullPointerException("the given encoding is null!");
+		this.scale = (float) Math.pow(2.0, stops);
+		this.encoding = encoding;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see tonemap.ToneMapper#map(float[], int, int, int[], int, int)
+	 */
+	@Override
+	public void map(float[] src, int srcOffset, int samples, int[] dst,
+			int dstOffset, int count) {
+		final int gs = samples == 1 ? 0 : 1;
+		for (int i = 0, o = srcOffset; i < count; ++i, o += samples)
+			dst[dstOffset + i] = encoding.encode(scale * src[o], scale
+					* src[o + gs], scale * src[o + 2 * gs]);
+	}
+}
@@ -0,0 +1,78 @@
+package tonemap;
+
+/**
+ * A tone mapper which clamps the floats to the range [0,1] and applies a gamma
+ * correction. It produces the same result as
+ * {@link io.PFMImage#toInt(double, double)} for every channel.
+ * 
+ * @author Niels Billen
+ * @version 1.0
+ * 
+ *          Redistribution and use in source and binary forms, with or without
+ *          modification, are permitted provided that the following conditions
+ *          are met:
+ * 
+ *          - Redistributions of source code must retain the above copyright
+ *          notice, this list of conditions and the following disclaimer.
+ * 
+ *          - Redistributions in binary form must reproduce the above copyright
+ *          notice, this list of conditions and the following disclaimer in the
+ *          documentation and/or other materials provided with the distribution.
+ * 
+ *          THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *          "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *          LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *          FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *          COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *          INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *          BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *          LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *          CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *          LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *          ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *          POSSIBILITY OF SUCH DAMAGE.
+ */
+public class GammaToneMapper implements ToneMapper {
+	private final double inv_gamma;
+
+	/**
+	 * Creates a new gamma tone mapper.
+	 * 
+	 * @param gamma
+	 *            the gamma correction factor, the floats are raised to the
+	 *            power 1/gamma.
+	 */
+	public GammaToneMapper(double gamma) {
+		this.inv_gamma = 1.0 / gamma;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see tonemap.ToneMapper#map(float[], int, int, int[], int, int)
+	 */
+	@Override
+	public void map(float[] src, int srcOffset, int samples, int[] dst,
+			int dstOffset, int count) {
+		final int gs = samples == 1 ? 0 : 1;
+		for (int i = 0, o = srcOffset; i < count; ++i, o += samples)
+			dst[dstOffset + i] = 0xFF000000 | toInt(src[o]) << 16
+					| toInt(src[o + gs]) << 8 | toInt(src[o + 2 * gs]);
+	}
+
+	/**
+	 * Returns the gamma corrected channel value of the given float.
+	 * 
+	 * @param f
+	 *            the float.
+	 * @return the gamma corrected channel value in the range [0,255].
+	 */
+	private int toInt(float f) {
+		if (f < 0.f)
+			return 0;
+		else if (f > 1.f)
+			return 255;
+		// NaN is converted to zero.
+		return Math.min(255, (int) (255.0 * Math.pow(f, inv_gamma)));
+	}
+}
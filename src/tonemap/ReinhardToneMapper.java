@@ -0,0 +1,105 @@
+package tonemap;
+
+/**
+ * The extended Reinhard tone mapping operator, which compresses the luminance
+ * L of every exposed pixel to L(1 + L/white^2)/(1 + L) and scales the color
+ * channels accordingly, preserving the hue.
+ * 
+ * The exposure is typically chosen as key/Lavg, where Lavg is the log-average
+ * luminance of the image, see
+ * {@link util.PFMStatistics#getLogAverageLuminance()}.
+ * 
+ * @author Niels Billen
+ * @version 1.0
+ * 
+ *          Redistribution and use in source and binary forms, with or without
+ *          modification, are permitted provided that the following conditions
+ *          are met:
+ * 
+ *          - Redistributions of source code must retain the above copyright
+ *          notice, this list of conditions and the following disclaimer.
+ * 
+ *          - Redistributions in binary form must reproduce the above copyright
+ *          notice, this list of conditions and the following disclaimer in the
+ *          documentation and/or other materials provided with the distribution.
+ * 
+ *          THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *          "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *          LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *          FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *          COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *          INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *          BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *          LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *          CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *          LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *          ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *          POSSIBILITY OF SUCH DAMAGE.
+ */
+public class ReinhardToneMapper implements ToneMapper {
+	private final float exposure;
+	private final float inv_white2;
+	private final Encoding encoding;
+
+	/**
+	 * Creates a new Reinhard tone mapper which does not burn out highlights.
+	 * 
+	 * @param exposure
+	 *            the factor the floats are multiplied with before the
+	 *            luminance is compressed.
+	 * @param encoding
+	 *            the encoding of the compressed values.
+	 * @throws NullPointerException
+	 *             when the given encoding is null.
+	 */
+	public ReinhardToneMapper(double exposure, Encoding encoding)
+			throws NullPointerException {
+		this(exposure, Double.POSITIVE_INFINITY, encoding);
+	}
+
+	/**
+	 * Creates a new Reinhard tone mapper.
+	 * 
+	 * @param exposure
+	 *            the factor the floats are multiplied with before the
+	 *            luminance is compressed.
+	 * @param white
+	 *            the smallest exposed luminance which is mapped to white.
+	 * @param encoding
+	 *            the encoding of the compressed values.
+	 * @throws IllegalArgumentException
+	 *             when the white point is smaller than or equal to zero.
+	 * @throws NullPointerException
+	 *             when the given encoding is null.
+	 */
+	public ReinhardToneMapper(double exposure, double white, Encoding encoding)
+			throws IllegalArgumentException, NullPointerException {
+		if (!(white > 0))
+			throw new IllegalArgumentException(
+					"the white point has to be larger than zero!");
+		if (encoding == null)
+			throw new NullPointerException("the given encoding is null!");
+		this.exposure = (float) exposure;
+		this.inv_white2 = (float) (1.0 / (white * white));
+		this.encoding = encoding;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see tonemap.ToneMapper#map(float[], int, int, int[], int, int)
+	 */
+	@Override
+	public void map(float[] src, int srcOffset, int samples, int[] dst,
+			int dstOffset, int count) {
+		final int gs = samples == 1 ? 0 : 1;
+		for (int i = 0, o = srcOffset; i < count; ++i, o += samples) {
+			final float r = exposure * src[o];
+			final float g = exposure * src[o + gs];
+			final float b = exposure * src[o + 2 * gs];
+			final float l = 0.2126f * r + 0.7152f * g + 0.0722f * b;
+			final float s = l > 0.f ? (1.f + l * inv_white2) / (1.f + l) : 0.f;
+			dst[dstOffset + i] = encoding.encode(s * r, s * g, s * b);
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package tonemap;
+
+/**
+ * Maps the high dynamic range floats of a Portable Float Map to packed 8-bit
+ * ARGB pixels for display.
+ * 
+ * Implementations process a whole run of pixels per call, so the conversion
+ * loop is fused with the operator and writes directly into a packed integer
+ * raster without allocating memory per pixel. Implementations must be
+ * stateless, since runs of the same image are mapped concurrently.
+ * 
+ * @author Niels Billen
+ * @version 1.0
+ * 
+ *          Redistribution and use in source and binary forms, with or without
+ *          modification, are permitted provided that the following conditions
+ *          are met:
+ * 
+ *          - Redistributions of source code must retain the above copyright
+ *          notice, this list of conditions and the following disclaimer.
+ * 
+ *          - Redistributions in binary form must reproduce the above copyright
+ *          notice, this list of conditions and the following disclaimer in the
+ *          documentation and/or other materials provided with the distribution.
+ * 
+ *          THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *          "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *          LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *          FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *          COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *          INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *          BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *          LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *          CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *          LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *          ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *          POSSIBILITY OF SUCH DAMAGE.
+ */
+public interface ToneMapper {
+	/**
+	 * Maps the given number of pixels to opaque packed ARGB integers.
+	 * 
+	 * @param src
+	 *            the floats of the pixels.
+	 * @param srcOffset
+	 *            the index of the first float of the first pixel.
+	 * @param samples
+	 *            the number of floats per pixel, 1 for gray scale pixels or 3
+	 *            for color pixels.
+	 * @param dst
+	 *            the array to store the packed pixels in.
+	 * @param dstOffset
+	 *            the index of the first packed pixel.
+	 * @param count
+	 *            the number of pixels to map.
+	 */
+	public void map(float[] src, int srcOffset, int samples, int[] dst,
+			int dstOffset, int count);
+}
@@ -0,0 +1,387 @@
+package util;
+
+import io.PFMBufferPool;
+import io.PFMImage;
+
+/**
+ * Accumulates the sample passes of a progressive renderer into a running
+ * average.
+ * 
+ * The accumulator keeps a color image with the running mean, the running sum
+ * of squared deviations from the mean (following Welford's algorithm) and the
+ * number of samples of every pixel. Passes are added in place, in parallel and
+ * without allocating memory proportional to the image. When a reference image
+ * is set, the mean squared error between the running mean and the reference is
+ * updated together with the mean instead of rescanning both images.
+ * 
+ * The accumulator is not threadsafe. A pass is processed in parallel
+ * internally, but passes must not be added concurrently.
+ * 
+ * @author Niels Billen
+ * @version 1.0
+ * 
+ *          Redistribution and use in source and binary forms, with or without
+ *          modification, are permitted provided that the following conditions
+ *          are met:
+ * 
+ *          - Redistributions of source code must retain the above copyright
+ *          notice, this list of conditions and the following disclaimer.
+ * 
+ *          - Redistributions in binary form must reproduce the above copyright
+ *          notice, this list of conditions and the following disclaimer in the
+ *          documentation and/or other materials provided with the distribution.
+ * 
+ *          THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *          "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *          LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *          FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *          COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *          INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *          BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *          LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *          CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *          LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *          ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *          POSSIBILITY OF SUCH DAMAGE.
+ */
+public class PFMAccumulator {
+	public final int width;
+	public final int height;
+	private final PFMImage mean;
+	private final float[] m2;
+	private final int[] counts;
+	private PFMImage reference;
+	private double squaredError;
+
+	/**
+	 * Creates a new empty accumulator with the given dimensions.
+	 * 
+	 * @param width
+	 *            the width of the passes.
+	 * @param height
+	 *            the height of the passes.
+	 * @throws IllegalArgumentException
+	 *             when the width or height are smaller than or equal to zero.
+	 */
+	public PFMAccumulator(int width, int height)
+			throws IllegalArgumentException {
+		this(width, height, null);
+	}
+
+	/**
+	 * Creates a new empty accumulator with the given dimensions which tracks
+	 * the mean squared error against the given reference.
+	 * 
+	 * @param width
+	 *            the width of the passes.
+	 * @param height
+	 *            the height of the passes.
+	 * @param reference
+	 *            the reference image or null.
+	 * @throws IllegalArgumentException
+	 *             when the width or height are smaller than or equal to zero,
+	 *             or when the resolution is too large to be stored.
+	 * @throws IllegalArgumentException
+	 *             when the size of the reference does not match.
+	 */
+	public PFMAccumulator(int width, int height, PFMImage reference)
+			throws IllegalArgumentException {
+		if (width <= 0)
+			throw new IllegalArgumentException(
+					"the width has to be larger than zero!");
+		if (height <= 0)
+			throw new IllegalArgumentException(
+					"the height has to be larger than zero!");
+		if (3L * width * height > Integer.MAX_VALUE)
+			throw new IllegalArgumentException(
+					"the resolution of the passes is too large!");
+
+		this.mean = new PFMImage(width, height, new float[3 * width * height],
+				null);
+		this.width = width;
+		this.height = height;
+		this.m2 = new float[3 * width * height];
+		this.counts = new int[width * height];
+		setReference(reference);
+	}
+
+	/**
+	 * Adds a pass with one sample per pixel to this accumulator.
+	 * 
+	 * @param pass
+	 *            the pass to add.
+	 * @throws NullPointerException
+	 *             when the given pass is null.
+	 * @throws IllegalArgumentException
+	 *             when the size of the pass does not match.
+	 */
+	public void add(final PFMImage pass) throws NullPointerException,
+			IllegalArgumentException {
+		if (pass == null)
+			throw new NullPointerException("the given pass is null!");
+		checkSize(pass);
+
+		final boolean gray = pass.isGrayScale();
+		final PFMImage reference = this.reference;
+
+		Double error = Parallel.reduce(0, height,
+				new Parallel.Reduction<Double>() {
+					@Override
+					public Double compute(int from, int to) {
+						double error = 0;
+						for (int i = from * width; i < to * width; ++i) {
+							final int n = ++counts[i];
+							for (int c = 0; c < 3; ++c) {
+								final int o = 3 * i + c;
+								final float sample = pass.getFloat(gray ? i : o);
+								error += update(o, n, sample, reference);
+							}
+						}
+						return error;
+					}
+
+					@Override
+					public Double merge(Double left, Double right) {
+						return left + right;
+					}
+				});
+
+		// Every pixel is updated, so the error is exact instead of a delta.
+		if (reference != null)
+			squaredError = error;
+	}
+
+	/**
+	 * Adds a single sample to the pixel at the given position.
+	 * 
+	 * @param x
+	 *            x position in the image.
+	 * @param y
+	 *            y position in the image.
+	 * @param r
+	 *            the red channel of the sample.
+	 * @param g
+	 *            the green channel of the sample.
+	 * @param b
+	 *            the blue channel of the sample.
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             when the given pixel coordinates are out of range.
+	 */
+	public void add(int x, int y, float r, float g, float b)
+			throws ArrayIndexOutOfBoundsException {
+		if (x < 0 || x >= width || y < 0 || y >= height)
+			throw new ArrayIndexOutOfBoundsException(
+					"the given pixel coordinates are out of range!");
+		final int i = y * width + x;
+		final int n = ++counts[i];
+		double before = 0, after = 0;
+		if (reference != null)
+			for (int c = 0; c < 3; ++c)
+				before += error(3 * i + c, mean.getFloat(3 * i + c));
+		after += update(3 * i, n, r, reference);
+		after += update(3 * i + 1, n, g, reference);
+		after += update(3 * i + 2, n, b, reference);
+		if (reference != null)
+			squaredError += after - before;
+	}
+
+	/**
+	 * Folds the given sample into the running mean and the running sum of
+	 * squared deviations of the given float.
+	 * 
+	 * @param o
+	 *            the index of the float.
+	 * @param n
+	 *            the number of samples including the given sample.
+	 * @param sample
+	 *            the sample.
+	 * @param reference
+	 *            the reference image or null.
+	 * @return the squared error of the updated mean against the reference, or
+	 *         zero when there is no reference.
+	 */
+	private double update(int o, int n, float sample, PFMImage reference) {
+		final float old = mean.getFloat(o);
+		final float delta = sample - old;
+		final float updated = old + delta / n;
+		mean.setFloat(o, updated);
+		m2[o] += delta * (sample - updated);
+		return reference == null ? 0 : error(o, updated);
+	}
+
+	/**
+	 * Returns the squared error of the given value against the reference at
+	 * the given float.
+	 * 
+	 * @param o
+	 *            the index of the float in the color image.
+	 * @param value
+	 *            the value.
+	 * @return the squared error against the reference.
+	 */
+	private double error(int o, float value) {
+		double d = value
+				- reference.getFloat(reference.isGrayScale() ? o / 3 : o);
+		return d * d;
+	}
+
+	/**
+	 * Sets the reference against which the mean squared error is tracked and
+	 * computes the error of the current mean against it.
+	 * 
+	 * @param reference
+	 *            the reference image or null.
+	 * @throws IllegalArgumentException
+	 *             when the size of the reference does not match.
+	 */
+	public void setReference(final PFMImage reference)
+			throws IllegalArgumentException {
+		if (reference != null)
+			checkSize(reference);
+		this.reference = reference;
+		if (reference == null) {
+			squaredError = 0;
+			return;
+		}
+
+		squaredError = Parallel.reduce(0, height,
+				new Parallel.Reduction<Double>() {
+					@Override
+					public Double compute(int from, int to) {
+						double error = 0;
+						for (int o = 3 * from * width; o < 3 * to * width; ++o)
+							error += error(o, mean.getFloat(o));
+						return error;
+					}
+
+					@Override
+					public Double merge(Double left, Double right) {
+						return left + right;
+					}
+				});
+	}
+
+	/**
+	 * Returns the reference against which the mean squared error is tracked.
+	 * 
+	 * @return the reference image or null.
+	 */
+	public PFMImage getReference() {
+		return reference;
+	}
+
+	/**
+	 * Returns the mean squared error between the running mean and the
+	 * reference, using the same definition as
+	 * {@link PFMUtil#MSE(PFMImage, PFMImage)}.
+	 * 
+	 * @throws IllegalStateException
+	 *             when there is no reference.
+	 * @return the mean squared error between the running mean and the
+	 *         reference.
+	 */
+	public double getMSE() throws IllegalStateException {
+		if (reference == null)
+			throw new IllegalStateException("there is no reference image!");
+		return squaredError / (width * height);
+	}
+
+	/**
+	 * Returns the running mean. The returned image is updated in place when
+	 * samples are added and must not be modified.
+	 * 
+	 * @return the running mean.
+	 */
+	public PFMImage getMean() {
+		return mean;
+	}
+
+	/**
+	 * Returns the unbiased sample variance of every float of the running
+	 * mean. Pixels with fewer than two samples have a variance of zero.
+	 * 
+	 * @return the sample variance as a color image.
+	 */
+	public PFMImage getVariance() {
+		return getVariance(null);
+	}
+
+	/**
+	 * Returns the unbiased sample variance of every float of the running
+	 * mean, drawing the floats of the result from the given pool. Pixels with
+	 * fewer than two samples have a variance of zero.
+	 * 
+	 * @param pool
+	 *            the pool to draw the floats of the result from or null.
+	 * @return the sample variance as a color image. When a pool is given, the
+	 *         image should be disposed when it is no longer needed.
+	 */
+	public PFMImage getVariance(PFMBufferPool pool) {
+		final float[] floats = pool == null ? new float[m2.length] : pool
+				.acquireFloats(m2.length);
+		Parallel.forEach(0, height, new Parallel.Body() {
+			@Override
+			public void run(int from, int to) {
+				for (int i = from * width; i < to * width; ++i) {
+					final int n = counts[i];
+					for (int o = 3 * i; o < 3 * i + 3; ++o)
+						floats[o] = n < 2 ? 0.f : m2[o] / (n - 1);
+				}
+			}
+		});
+		return new PFMImage(width, height, floats, pool);
+	}
+
+	/**
+	 * Returns the number of samples of the pixel at the given position.
+	 * 
+	 * @param x
+	 *            x position in the image.
+	 * @param y
+	 *            y position in the image.
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             when the given pixel coordinates are out of range.
+	 * @return the number of samples of the pixel at the given position.
+	 */
+	public int getCount(int x, int y) throws ArrayIndexOutOfBoundsException {
+		if (x < 0 || x >= width || y < 0 || y >= height)
+			throw new ArrayIndexOutOfBoundsException(
+					"the given pixel coordinates are out of range!");
+		return counts[y * width + x];
+	}
+
+	/**
+	 * Removes all the samples from this accumulator. The reference is kept.
+	 */
+	public void reset() {
+		Parallel.forEach(0, height, new Parallel.Body() {
+			@Override
+			public void run(int from, int to) {
+				for (int i = from * width; i < to * width; ++i) {
+					counts[i] = 0;
+					for (int o = 3 * i; o < 3 * i + 3; ++o) {
+						mean.setFloat(o, 0.f);
+						m2[o] = 0.f;
+					}
+				}
+			}
+		});
+		setReference(reference);
+	}
+
+	/**
+	 * Checks whether the given image matches the size of this accumulator.
+	 * 
+	 * @param image
+	 *            the image.
+	 * @throws IllegalArgumentException
+	 *             when the sizes do not match.
+	 */
+	private void checkSize(PFMImage image) throws IllegalArgumentException {
+		if (image.width != width || image.height != height)
+			throw new IllegalArgumentException(
+					"the images do not have matching size!" + image.width
+							+ "x" + image.height + " vs " + width + "x"
+							+ height);
+	}
+}
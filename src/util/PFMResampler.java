@@ -0,0 +1,448 @@
+package util;
+
+import io.PFMImage;
+import io.PFMRowReader;
+import metrics.PFMMetrics;
+import metrics.PFMMetrics.Stage;
+
+import java.io.IOException;
+
+/**
+ * Resamples Portable Float Map images of a fixed size to another size in the
+ * float domain, so the dynamic range of the images is preserved.
+ * 
+ * The filter is applied as a horizontal pass followed by a vertical pass. The
+ * filter weights of both passes are computed once when the resampler is
+ * created and are reused for every image, so a resampler should be kept for a
+ * sequence of frames with the same size. When downscaling, the support of the
+ * filter is widened by the scale factor so every source pixel contributes.
+ * Filter taps outside the image are dropped and the remaining weights are
+ * renormalized.
+ * 
+ * Resident images are processed in parallel bands of destination rows, where
+ * every band filters only the source rows it needs horizontally before
+ * combining them vertically. Images can also be streamed from a
+ * {@link PFMRowReader}, in which case only a small ring of horizontally
+ * filtered rows is kept in memory instead of the full resolution image.
+ * 
+ * @author Niels Billen
+ * @version 1.0
+ * 
+ *          Redistribution and use in source and binary forms, with or without
+ *          modification, are permitted provided that the following conditions
+ *          are met:
+ * 
+ *          - Redistributions of source code must retain the above copyright
+ *          notice, this list of conditions and the following disclaimer.
+ * 
+ *          - Redistributions in binary form must reproduce the above copyright
+ *          notice, this list of conditions and the following disclaimer in the
+ *          documentation and/or other materials provided with the distribution.
+ * 
+ *          THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *          "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *          LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *          FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *          COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *          INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *          BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *          LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *          CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *          LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *          ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *          POSSIBILITY OF SUCH DAMAGE.
+ */
+public class PFMResampler {
+	/**
+	 * The filters which can be used to resample an image.
+	 */
+	public enum Filter {
+		/**
+		 * Averages the source pixels covered by a destination pixel. Behaves
+		 * like nearest neighbour sampling when upscaling.
+		 */
+		BOX(0.5),
+
+		/**
+		 * The tent filter, which interpolates linearly when upscaling.
+		 */
+		BILINEAR(1.0),
+
+		/**
+		 * The Lanczos filter with three lobes.
+		 */
+		LANCZOS3(3.0);
+
+		private final double support;
+
+		/**
+		 * Creates a new filter with the given support.
+		 * 
+		 * @param support
+		 *            the radius beyond which the filter is zero.
+		 */
+		private Filter(double support) {
+			this.support = support;
+		}
+
+		/**
+		 * Evaluates this filter at the given distance.
+		 * 
+		 * @param x
+		 *            the distance in source pixels.
+		 * @return the weight of the filter at the given distance.
+		 */
+		double evaluate(double x) {
+			switch (this) {
+			case BOX:
+				return x >= -0.5 && x < 0.5 ? 1.0 : 0.0;
+			case BILINEAR:
+				return Math.max(0.0, 1.0 - Math.abs(x));
+			default:
+				if (x == 0.0)
+					return 1.0;
+				if (Math.abs(x) >= 3.0)
+					return 0.0;
+				final double px = Math.PI * x;
+				return 3.0 * Math.sin(px) * Math.sin(px / 3.0) / (px * px);
+			}
+		}
+	}
+
+	public final int srcWidth;
+	public final int srcHeight;
+	public final int dstWidth;
+	public final int dstHeight;
+	private final Weights horizontal;
+	private final Weights vertical;
+
+	/**
+	 * Creates a new resampler from the given source size to the given
+	 * destination size.
+	 * 
+	 * @param filter
+	 *            the filter.
+	 * @param srcWidth
+	 *            the width of the source images.
+	 * @param srcHeight
+	 *            the height of the source images.
+	 * @param dstWidth
+	 *            the width of the resampled images.
+	 * @param dstHeight
+	 *            the height of the resampled images.
+	 * @throws NullPointerException
+	 *             when the given filter is null.
+	 * @throws IllegalArgumentException
+	 *             when one of the sizes is smaller than or equal to zero.
+	 */
+	public PFMResampler(Filter filter, int srcWidth, int srcHeight,
+			int dstWidth, int dstHeight) throws NullPointerException,
+			IllegalArgumentException {
+		if (filter == null)
+			throw new NullPointerException("the given filter is null!");
+		if (srcWidth <= 0 || srcHeight <= 0)
+			throw new IllegalArgumentException(
+					"the source size has to be larger than zero!");
+		if (dstWidth <= 0 || dstHeight <= 0)
+			throw new IllegalArgumentException(
+					"the destination size has to be larger than zero!");
+		this.srcWidth = srcWidth;
+		this.srcHeight = srcHeight;
+		this.dstWidth = dstWidth;
+		this.dstHeight = dstHeight;
+		this.horizontal = new Weights(filter, srcWidth, dstWidth);
+		this.vertical = new Weights(filter, srcHeight, dstHeight);
+	}
+
+	/**
+	 * Resamples the given image to the given size.
+	 * 
+	 * @param image
+	 *            the image.
+	 * @param width
+	 *            the width of the resampled image.
+	 * @param height
+	 *            the height of the resampled image.
+	 * @param filter
+	 *            the filter.
+	 * @throws NullPointerException
+	 *             when the given image or filter is null.
+	 * @throws IllegalArgumentException
+	 *             when the width or height are smaller than or equal to zero.
+	 * @return the resampled image.
+	 */
+	public static PFMImage resample(PFMImage image, int width, int height,
+			Filter filter) throws NullPointerException,
+			IllegalArgumentException {
+		if (image == null)
+			throw new NullPointerException("the given image is null!");
+		return new PFMResampler(filter, image.width, image.height, width,
+				height).resample(image);
+	}
+
+	/**
+	 * Resamples the given image.
+	 * 
+	 * @param image
+	 *            the image.
+	 * @throws NullPointerException
+	 *             when the given image is null.
+	 * @throws IllegalArgumentException
+	 *             when the size of the image does not match the source size.
+	 * @return the resampled image, which is a gray scale image when the given
+	 *         image is a gray scale image.
+	 */
+	public PFMImage resample(final PFMImage image)
+			throws NullPointerException, IllegalArgumentException {
+		if (image == null)
+			throw new NullPointerException("the given image is null!");
+		if (image.width != srcWidth || image.height != srcHeight)
+			throw new IllegalArgumentException(
+					"the image does not match the source size!" + image.width
+							+ "x" + image.height + " vs " + srcWidth + "x"
+							+ srcHeight);
+
+		PFMMetrics.Span span = PFMMetrics.begin(Stage.RESAMPLE);
+		final int samples = image.isGrayScale() ? 1 : 3;
+		final float[] result = new float[samples * dstWidth * dstHeight];
+
+		Parallel.forEach(0, dstHeight, new Parallel.Body() {
+			@Override
+			public void run(int from, int to) {
+				// The source rows needed by this band of destination rows.
+				final int first = vertical.start[from];
+				final int last = vertical.start[to - 1]
+						+ vertical.count[to - 1];
+				final int srcStride = samples * srcWidth;
+				final int dstStride = samples * dstWidth;
+				final float[] row = new float[srcStride];
+				final float[] filtered = new float[(last - first) * dstStride];
+
+				for (int y = first; y < last; ++y) {
+					for (int i = 0, o = y * srcStride; i < srcStride; ++i, ++o)
+						row[i] = image.getFloat(o);
+					filterRow(row, 0, samples, filtered, (y - first)
+							* dstStride);
+				}
+				for (int y = from; y < to; ++y)
+					combineRows(y, filtered, first, Integer.MAX_VALUE,
+							dstStride, result, y * dstStride);
+			}
+		});
+
+		span.end(4L * result.length, image.nbOfFloats());
+		return new PFMImage(dstWidth, dstHeight, result, null);
+	}
+
+	/**
+	 * Resamples the remaining rows of the given reader without materializing
+	 * the full resolution image. The reader must be positioned at its first
+	 * row.
+	 * 
+	 * @param reader
+	 *            the reader.
+	 * @throws IOException
+	 *             when an exception occurs during the reading of the file.
+	 * @throws NullPointerException
+	 *             when the given reader is null.
+	 * @throws IllegalArgumentException
+	 *             when the size of the image does not match the source size,
+	 *             when the reader is not positioned at its first row or when
+	 *             the destination size is too large.
+	 * @return the resampled image, which is a gray scale image when the read
+	 *         image is a gray scale image.
+	 */
+	public PFMImage resample(PFMRowReader reader) throws IOException,
+			NullPointerException, IllegalArgumentException {
+		if (reader == null)
+			throw new NullPointerException("the given reader is null!");
+		if (reader.width != srcWidth || reader.height != srcHeight)
+			throw new IllegalArgumentException(
+					"the image does not match the source size!" + reader.width
+							+ "x" + reader.height + " vs " + srcWidth + "x"
+							+ srcHeight);
+		if (reader.getRow() != 0)
+			throw new IllegalArgumentException(
+					"the reader is not positioned at its first row!");
+
+		final int samples = reader.isGrayScale() ? 1 : 3;
+		final int srcStride = samples * srcWidth;
+		final int dstStride = samples * dstWidth;
+		// Bound the chunk by the widest row, so the row buffer and the ring
+		// both stay near one million floats, and by the number of rows.
+		final int chunk = Math.min(srcHeight,
+				Math.max(1, (1 << 20) / Math.max(srcStride, dstStride)));
+		final int ringRows = Math.min(srcHeight, vertical.taps + chunk);
+		if ((long) ringRows * dstStride > Integer.MAX_VALUE
+				|| (long) dstStride * dstHeight > Integer.MAX_VALUE)
+			throw new IllegalArgumentException(
+					"the destination size is too large!");
+
+		PFMMetrics.Span span = PFMMetrics.begin(Stage.RESAMPLE);
+		final float[] rows = new float[chunk * srcStride];
+		final float[] ring = new float[ringRows * dstStride];
+		final float[] result = new float[dstStride * dstHeight];
+
+		int next = 0, read;
+		while ((read = reader.readRows(rows, 0, chunk)) > 0) {
+			final int first = reader.getRow() - read;
+			Parallel.forEach(0, read, new Parallel.Body() {
+				@Override
+				public void run(int from, int to) {
+					for (int r = from; r < to; ++r)
+						filterRow(rows, r * srcStride, samples, ring,
+								((first + r) % ringRows) * dstStride);
+				}
+			});
+
+			// Emit all the destination rows whose source rows are available.
+			final int available = reader.getRow();
+			int end = next;
+			while (end < dstHeight
+					&& vertical.start[end] + vertical.count[end] <= available)
+				++end;
+			final int from = next;
+			Parallel.forEach(from, end, new Parallel.Body() {
+				@Override
+				public void run(int from, int to) {
+					for (int y = from; y < to; ++y)
+						combineRows(y, ring, 0, ringRows, dstStride, result, y
+								* dstStride);
+				}
+			});
+			next = end;
+		}
+
+		span.end(4L * result.length, (long) srcHeight * srcStride);
+		return new PFMImage(dstWidth, dstHeight, result, null);
+	}
+
+	/**
+	 * Filters a source row horizontally into a row of the destination width.
+	 * 
+	 * @param src
+	 *            the array containing the source row.
+	 * @param srcOffset
+	 *            the index of the first float of the source row.
+	 * @param samples
+	 *            the number of floats per pixel.
+	 * @param dst
+	 *            the array to store the filtered row in.
+	 * @param dstOffset
+	 *            the index of the first float of the filtered row.
+	 */
+	private void filterRow(float[] src, int srcOffset, int samples,
+			float[] dst, int dstOffset) {
+		final Weights h = horizontal;
+		for (int x = 0; x < dstWidth; ++x) {
+			final int w = x * h.taps;
+			final int s = srcOffset + h.start[x] * samples;
+			final int n = h.count[x];
+			for (int c = 0; c < samples; ++c) {
+				float sum = 0.f;
+				for (int k = 0; k < n; ++k)
+					sum += h.weights[w + k] * src[s + k * samples + c];
+				dst[dstOffset + x * samples + c] = sum;
+			}
+		}
+	}
+
+	/**
+	 * Combines horizontally filtered rows vertically into a destination row.
+	 * 
+	 * @param y
+	 *            the destination row.
+	 * @param filtered
+	 *            the array containing the horizontally filtered rows.
+	 * @param first
+	 *            the source row stored at the start of the array.
+	 * @param ringRows
+	 *            the number of rows after which the array wraps around.
+	 * @param stride
+	 *            the number of floats in a filtered row.
+	 * @param dst
+	 *            the array to store the destination row in.
+	 * @param dstOffset
+	 *            the index of the first float of the destination row.
+	 */
+	private void combineRows(int y, float[] filtered, int first,
+			int ringRows, int stride, float[] dst, int dstOffset) {
+		final Weights v = vertical;
+		final int w = y * v.taps;
+		final int n = v.count[y];
+		for (int i = 0; i < stride; ++i)
+			dst[dstOffset + i] = 0.f;
+		for (int k = 0; k < n; ++k) {
+			final float wk = v.weights[w + k];
+			final int o = ((v.start[y] + k - first) % ringRows) * stride;
+			for (int i = 0; i < stride; ++i)
+				dst[dstOffset + i] += wk * filtered[o + i];
+		}
+	}
+
+	/**
+	 * The normalized filter weights of every destination pixel along one
+	 * dimension.
+	 */
+	private static final class Weights {
+		final int taps;
+		final int[] start;
+		final int[] count;
+		final float[] weights;
+
+		/**
+		 * Computes the weights to resample the given number of source pixels
+		 * to the given number of destination pixels.
+		 * 
+		 * @param filter
+		 *            the filter.
+		 * @param src
+		 *            the number of source pixels.
+		 * @param dst
+		 *            the number of destination pixels.
+		 */
+		Weights(Filter filter, int src, int dst) {
+			final double scale = (double) src / dst;
+			final double stretch = Math.max(1.0, scale);
+			final double support = filter.support * stretch;
+			this.taps = Math.min(src, (int) Math.ceil(2 * support) + 2);
+			this.start = new int[dst];
+			this.count = new int[dst];
+			this.weights = new float[dst * taps];
+			final double[] w = new double[taps];
+
+			for (int i = 0; i < dst; ++i) {
+				final double center = (i + 0.5) * scale - 0.5;
+				int lo = Math.max(0, (int) Math.ceil(center - support));
+				int hi = Math.min(src - 1, (int) Math.floor(center + support));
+
+				// Skip the taps with a zero weight on both sides.
+				while (lo < hi && filter.evaluate((lo - center) / stretch) == 0.0)
+					++lo;
+				while (hi > lo && filter.evaluate((hi - center) / stretch) == 0.0)
+					--hi;
+
+				int n = hi - lo + 1;
+				double sum = 0;
+				for (int k = 0; k < n; ++k) {
+					w[k] = filter.evaluate((lo + k - center) / stretch);
+					sum += w[k];
+				}
+
+				if (n <= 0 || sum == 0.0) {
+					// The filter misses every pixel, take the nearest one.
+					lo = Math.min(src - 1,
+							Math.max(0, (int) Math.round(center)));
+					n = 1;
+					w[0] = 1.0;
+					sum = 1.0;
+				}
+
+				start[i] = lo;
+				count[i] = n;
+				for (int k = 0; k < n; ++k)
+					weights[i * taps + k] = (float) (w[k] / sum);
+			}
+		}
+	}
+}
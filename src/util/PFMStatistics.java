@@ -0,0 +1,527 @@
+package util;
+
+import io.PFMImage;
+import io.PFMRowReader;
+
+import java.io.IOException;
+
+/**
+ * Statistics of a high dynamic range Portable Float Map image which are
+ * gathered in a single pass over its floats.
+ * 
+ * The statistics consist of the number of NaN and infinite floats, the minimum
+ * and maximum of every color channel, the mean and log-average luminance and a
+ * histogram of the luminance with logarithmically spaced bins from which
+ * percentiles can be estimated. Gray scale images are treated as color images
+ * with three equal channels and the luminance of a color pixel is computed
+ * with the Rec. 709 weights.
+ * 
+ * Pixels with a NaN or infinite channel are counted but do not contribute to
+ * the channel bounds or the luminance statistics. Luminances outside the range
+ * of the histogram are counted in its first or last bin.
+ * 
+ * The statistics of an image are computed in parallel bands which each gather
+ * their own statistics, after which the statistics of the bands are merged.
+ * 
+ * @author Niels Billen
+ * @version 1.0
+ * 
+ *          Redistribution and use in source and binary forms, with or without
+ *          modification, are permitted provided that the following conditions
+ *          are met:
+ * 
+ *          - Redistributions of source code must retain the above copyright
+ *          notice, this list of conditions and the following disclaimer.
+ * 
+ *          - Redistributions in binary form must reproduce the above copyright
+ *          notice, this list of conditions and the following disclaimer in the
+ *          documentation and/or other materials provided with the distribution.
+ * 
+ *          THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *          "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *          LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *          FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *          COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *          INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *          BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *          LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *          CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *          LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *          ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *          POSSIBILITY OF SUCH DAMAGE.
+ */
+public class PFMStatistics {
+	/**
+	 * The default lower bound of the luminance histogram.
+	 */
+	public static final double MIN_LUMINANCE = 1e-6;
+
+	/**
+	 * The default upper bound of the luminance histogram.
+	 */
+	public static final double MAX_LUMINANCE = 1e6;
+
+	/**
+	 * The default number of bins in the luminance histogram.
+	 */
+	public static final int BINS = 1200;
+
+	/**
+	 * The offset added to the luminance before taking the logarithm for the
+	 * log-average luminance, to avoid the singularity at black pixels.
+	 */
+	public static final double LOG_DELTA = 1e-4;
+
+	private final double logMin;
+	private final double logMax;
+	private final double binsPerLog;
+	private final long[] histogram;
+
+	private long pixels = 0;
+	private long valid = 0;
+	private long nan = 0;
+	private long infinite = 0;
+	private final float[] min = new float[] { Float.POSITIVE_INFINITY,
+			Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY };
+	private final float[] max = new float[] { Float.NEGATIVE_INFINITY,
+			Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY };
+	private double sumLuminance = 0;
+	private double sumLogLuminance = 0;
+
+	/**
+	 * Creates empty statistics with the default luminance histogram.
+	 */
+	public PFMStatistics() {
+		this(MIN_LUMINANCE, MAX_LUMINANCE, BINS);
+	}
+
+	/**
+	 * Creates empty statistics with a luminance histogram with the given
+	 * number of bins logarithmically spaced between the given bounds.
+	 * 
+	 * @param minLuminance
+	 *            the lower bound of the histogram.
+	 * @param maxLuminance
+	 *            the upper bound of the histogram.
+	 * @param bins
+	 *            the number of bins in the histogram.
+	 * @throws IllegalArgumentException
+	 *             when the lower bound is not larger than zero or not smaller
+	 *             than the upper bound.
+	 * @throws IllegalArgumentException
+	 *             when the number of bins is smaller than or equal to zero.
+	 */
+	public PFMStatistics(double minLuminance, double maxLuminance, int bins)
+			throws IllegalArgumentException {
+		if (!(minLuminance > 0))
+			throw new IllegalArgumentException(
+					"the lower bound of the histogram has to be larger than zero!");
+		if (!(minLuminance < maxLuminance))
+			throw new IllegalArgumentException(
+					"the lower bound of the histogram has to be smaller than "
+							+ "the upper bound!");
+		if (bins <= 0)
+			throw new IllegalArgumentException(
+					"the number of bins has to be larger than zero!");
+		this.logMin = Math.log(minLuminance);
+		this.logMax = Math.log(maxLuminance);
+		this.binsPerLog = bins / (logMax - logMin);
+		this.histogram = new long[bins];
+	}
+
+	/**
+	 * Computes the statistics of the given image with the default luminance
+	 * histogram.
+	 * 
+	 * @param image
+	 *            the image.
+	 * @throws NullPointerException
+	 *             when the given image is null.
+	 * @return the statistics of the given image.
+	 */
+	public static PFMStatistics of(PFMImage image) throws NullPointerException {
+		return of(image, MIN_LUMINANCE, MAX_LUMINANCE, BINS);
+	}
+
+	/**
+	 * Computes the statistics of the given image with the given luminance
+	 * histogram.
+	 * 
+	 * @param image
+	 *            the image.
+	 * @param minLuminance
+	 *            the lower bound of the histogram.
+	 * @param maxLuminance
+	 *            the upper bound of the histogram.
+	 * @param bins
+	 *            the number of bins in the histogram.
+	 * @throws NullPointerException
+	 *             when the given image is null.
+	 * @return the statistics of the given image.
+	 */
+	public static PFMStatistics of(final PFMImage image,
+			final double minLuminance, final double maxLuminance,
+			final int bins) throws NullPointerException {
+		if (image == null)
+			throw new NullPointerException("the given image is null!");
+		// Validates the arguments before any work is forked.
+		final PFMStatistics result = new PFMStatistics(minLuminance,
+				maxLuminance, bins);
+		final boolean gray = image.isGrayScale();
+
+		return result.merge(Parallel.reduce(0, image.height,
+				new Parallel.Reduction<PFMStatistics>() {
+					@Override
+					public PFMStatistics compute(int from, int to) {
+						PFMStatistics s = new PFMStatistics(minLuminance,
+								maxLuminance, bins);
+						for (int i = from * image.width; i < to * image.width; ++i)
+							if (gray) {
+								float c = image.getFloat(i);
+								s.add(c, c, c);
+							} else
+								s.add(image.getFloat(3 * i),
+										image.getFloat(3 * i + 1),
+										image.getFloat(3 * i + 2));
+						return s;
+					}
+
+					@Override
+					public PFMStatistics merge(PFMStatistics left,
+							PFMStatistics right) {
+						return left.merge(right);
+					}
+				}));
+	}
+
+	/**
+	 * Computes the statistics of the remaining rows of the given reader with
+	 * the default luminance histogram.
+	 * 
+	 * @param reader
+	 *            the reader.
+	 * @throws IOException
+	 *             when an exception occurs during the reading of the file.
+	 * @throws NullPointerException
+	 *             when the given reader is null.
+	 * @return the statistics of the remaining rows.
+	 */
+	public static PFMStatistics of(PFMRowReader reader) throws IOException,
+			NullPointerException {
+		return of(reader, MIN_LUMINANCE, MAX_LUMINANCE, BINS);
+	}
+
+	/**
+	 * Computes the statistics of the remaining rows of the given reader with
+	 * the given luminance histogram. The rows are read in bands of about a
+	 * million floats, so the memory used does not depend on the height of
+	 * the image.
+	 * 
+	 * @param reader
+	 *            the reader.
+	 * @param minLuminance
+	 *            the lower bound of the histogram.
+	 * @param maxLuminance
+	 *            the upper bound of the histogram.
+	 * @param bins
+	 *            the number of bins in the histogram.
+	 * @throws IOException
+	 *             when an exception occurs during the reading of the file.
+	 * @throws NullPointerException
+	 *             when the given reader is null.
+	 * @return the statistics of the remaining rows.
+	 */
+	public static PFMStatistics of(PFMRowReader reader,
+			final double minLuminance, final double maxLuminance,
+			final int bins) throws IOException, NullPointerException {
+		if (reader == null)
+			throw new NullPointerException("the given reader is null!");
+		final PFMStatistics result = new PFMStatistics(minLuminance,
+				maxLuminance, bins);
+		final int width = reader.width;
+		final int stride = reader.nbOfFloatsPerRow();
+		final boolean gray = reader.isGrayScale();
+		final float[] floats = new float[Math.max(1, (1 << 20) / stride)
+				* stride];
+
+		int rows;
+		while ((rows = reader.readRows(floats, 0, floats.length / stride)) > 0)
+			result.merge(Parallel.reduce(0, rows,
+					new Parallel.Reduction<PFMStatistics>() {
+						@Override
+						public PFMStatistics compute(int from, int to) {
+							PFMStatistics s = new PFMStatistics(minLuminance,
+									maxLuminance, bins);
+							for (int i = from * width; i < to * width; ++i)
+								if (gray)
+									s.add(floats[i], floats[i], floats[i]);
+								else
+									s.add(floats[3 * i], floats[3 * i + 1],
+											floats[3 * i + 2]);
+							return s;
+						}
+
+						@Override
+						public PFMStatistics merge(PFMStatistics left,
+								PFMStatistics right) {
+							return left.merge(right);
+						}
+					}));
+		return result;
+	}
+
+	/**
+	 * Adds a pixel to these statistics.
+	 * 
+	 * @param r
+	 *            the red channel of the pixel.
+	 * @param g
+	 *            the green channel of the pixel.
+	 * @param b
+	 *            the blue channel of the pixel.
+	 */
+	public void add(float r, float g, float b) {
+		++pixels;
+
+		boolean finite = true;
+		if (r != r || g != g || b != b) {
+			nan += (r != r ? 1 : 0) + (g != g ? 1 : 0) + (b != b ? 1 : 0);
+			finite = false;
+		}
+		if (Float.isInfinite(r) || Float.isInfinite(g) || Float.isInfinite(b)) {
+			infinite += (Float.isInfinite(r) ? 1 : 0)
+					+ (Float.isInfinite(g) ? 1 : 0)
+					+ (Float.isInfinite(b) ? 1 : 0);
+			finite = false;
+		}
+		if (!finite)
+			return;
+
+		++valid;
+		if (r < min[0])
+			min[0] = r;
+		if (r > max[0])
+			max[0] = r;
+		if (g < min[1])
+			min[1] = g;
+		if (g > max[1])
+			max[1] = g;
+		if (b < min[2])
+			min[2] = b;
+		if (b > max[2])
+			max[2] = b;
+
+		final double l = luminance(r, g, b);
+		sumLuminance += l;
+		sumLogLuminance += Math.log(LOG_DELTA + Math.max(0.0, l));
+
+		int bin = 0;
+		if (l > 0)
+			bin = (int) ((Math.log(l) - logMin) * binsPerLog);
+		if (bin < 0)
+			bin = 0;
+		else if (bin >= histogram.length)
+			bin = histogram.length - 1;
+		++histogram[bin];
+	}
+
+	/**
+	 * Adds the given statistics to these statistics.
+	 * 
+	 * @param other
+	 *            the statistics to add.
+	 * @throws NullPointerException
+	 *             when the given statistics are null.
+	 * @throws IllegalArgumentException
+	 *             when the histograms of the statistics do not match.
+	 * @return these statistics.
+	 */
+	public PFMStatistics merge(PFMStatistics other)
+			throws NullPointerException, IllegalArgumentException {
+		if (other == null)
+			throw new NullPointerException("the given statistics are null!");
+		if (other.histogram.length != histogram.length
+				|| other.logMin != logMin || other.logMax != logMax)
+			throw new IllegalArgumentException(
+					"the histograms of the statistics do not match!");
+
+		pixels += other.pixels;
+		valid += other.valid;
+		nan += other.nan;
+		infinite += other.infinite;
+		for (int c = 0; c < 3; ++c) {
+			min[c] = Math.min(min[c], other.min[c]);
+			max[c] = Math.max(max[c], other.max[c]);
+		}
+		sumLuminance += other.sumLuminance;
+		sumLogLuminance += other.sumLogLuminance;
+		for (int i = 0; i < histogram.length; ++i)
+			histogram[i] += other.histogram[i];
+		return this;
+	}
+
+	/**
+	 * Returns the luminance of the given color using the Rec. 709 weights.
+	 * 
+	 * @param r
+	 *            the red channel.
+	 * @param g
+	 *            the green channel.
+	 * @param b
+	 *            the blue channel.
+	 * @return the luminance of the given color.
+	 */
+	public static double luminance(double r, double g, double b) {
+		return 0.2126 * r + 0.7152 * g + 0.0722 * b;
+	}
+
+	/**
+	 * Returns the number of pixels which were added.
+	 * 
+	 * @return the number of pixels which were added.
+	 */
+	public long getPixels() {
+		return pixels;
+	}
+
+	/**
+	 * Returns the number of pixels without NaN or infinite channels.
+	 * 
+	 * @return the number of pixels without NaN or infinite channels.
+	 */
+	public long getValidPixels() {
+		return valid;
+	}
+
+	/**
+	 * Returns the number of NaN floats.
+	 * 
+	 * @return the number of NaN floats.
+	 */
+	public long getNaNCount() {
+		return nan;
+	}
+
+	/**
+	 * Returns the number of positive or negative infinite floats.
+	 * 
+	 * @return the number of infinite floats.
+	 */
+	public long getInfiniteCount() {
+		return infinite;
+	}
+
+	/**
+	 * Returns the minimum of the given color channel over the valid pixels.
+	 * 
+	 * @param channel
+	 *            the channel, 0 for red, 1 for green and 2 for blue.
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             when the channel is out of range.
+	 * @return the minimum of the channel, or positive infinity when there are
+	 *         no valid pixels.
+	 */
+	public float getMin(int channel) throws ArrayIndexOutOfBoundsException {
+		return min[channel];
+	}
+
+	/**
+	 * Returns the maximum of the given color channel over the valid pixels.
+	 * 
+	 * @param channel
+	 *            the channel, 0 for red, 1 for green and 2 for blue.
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             when the channel is out of range.
+	 * @return the maximum of the channel, or negative infinity when there are
+	 *         no valid pixels.
+	 */
+	public float getMax(int channel) throws ArrayIndexOutOfBoundsException {
+		return max[channel];
+	}
+
+	/**
+	 * Returns the mean luminance of the valid pixels.
+	 * 
+	 * @return the mean luminance, or NaN when there are no valid pixels.
+	 */
+	public double getMeanLuminance() {
+		return valid == 0 ? Double.NaN : sumLuminance / valid;
+	}
+
+	/**
+	 * Returns the log-average luminance of the valid pixels, which is
+	 * exp(mean(log(delta + L))) with delta equal to {@link #LOG_DELTA}.
+	 * Negative luminances are treated as zero.
+	 * 
+	 * @return the log-average luminance, or NaN when there are no valid
+	 *         pixels.
+	 */
+	public double getLogAverageLuminance() {
+		return valid == 0 ? Double.NaN : Math.exp(sumLogLuminance / valid);
+	}
+
+	/**
+	 * Returns the estimated luminance below which the given fraction of the
+	 * valid pixels lies. The estimate interpolates logarithmically within the
+	 * histogram bin containing the percentile, so its accuracy is bounded by
+	 * the width of the bins.
+	 * 
+	 * @param p
+	 *            the fraction in the range [0,1].
+	 * @throws IllegalArgumentException
+	 *             when the fraction is outside the range [0,1].
+	 * @return the estimated luminance, or NaN when there are no valid pixels.
+	 */
+	public double getPercentile(double p) throws IllegalArgumentException {
+		if (!(p >= 0 && p <= 1))
+			throw new IllegalArgumentException(
+					"the fraction has to lie in the range [0,1]!");
+		if (valid == 0)
+			return Double.NaN;
+
+		final double target = p * valid;
+		long cumulative = 0;
+		for (int i = 0; i < histogram.length; ++i) {
+			if (histogram[i] > 0 && cumulative + histogram[i] >= target) {
+				double t = (target - cumulative) / histogram[i];
+				return Math.exp(logMin + (i + t) / binsPerLog);
+			}
+			cumulative += histogram[i];
+		}
+		return Math.exp(logMax);
+	}
+
+	/**
+	 * Returns the number of bins in the luminance histogram.
+	 * 
+	 * @return the number of bins in the luminance histogram.
+	 */
+	public int getBins() {
+		return histogram.length;
+	}
+
+	/**
+	 * Returns the number of valid pixels in the given bin of the luminance
+	 * histogram.
+	 * 
+	 * @param bin
+	 *            the index of the bin.
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             when the bin is out of range.
+	 * @return the number of valid pixels in the given bin.
+	 */
+	public long getHistogram(int bin) throws ArrayIndexOutOfBoundsException {
+		return histogram[bin];
+	}
+
+	/**
+	 * Returns the lower luminance bound of the given bin of the histogram.
+	 * 
+	 * @param bin
+	 *            the index of the bin.
+	 * @return the lower luminance bound of the given bin.
+	 */
+	public double getBinLowerBound(int bin) {
+		return Math.exp(logMin + bin / binsPerLog);
+	}
+}
@@ -1,6 +1,10 @@
 package util;
 
+import io.PFMBufferPool;
 import io.PFMImage;
+import metrics.PFMMetrics;
+import metrics.PFMMetrics.Counter;
+import metrics.PFMMetrics.Stage;
 
 import java.math.BigDecimal;
 import java.math.MathContext;
@@ -61,6 +65,7 @@ public class PFMUtil {
 					"the images do not have matching size!" + image1.width
 							+ "x" + image1.height + " vs " + image2.width + "x"
 							+ image2.height);
+		PFMMetrics.Span span = PFMMetrics.begin(Stage.COMPARE);
 		BigDecimal result = BigDecimal.ZERO;
 
 		for (int y = 0; y < image1.height; ++y) {
@@ -77,7 +82,9 @@ public class PFMUtil {
 		}
 
 		BigDecimal resolution = new BigDecimal(image1.width * image1.height);
-		return result.divide(resolution, RoundingMode.HALF_DOWN);
+		result = result.divide(resolution, RoundingMode.HALF_DOWN);
+		span.end(0, image1.nbOfFloats() + image2.nbOfFloats());
+		return result;
 	}
 
 	/**
@@ -115,6 +122,30 @@ public class PFMUtil {
 	 */
 	public static PFMImage difference(PFMImage image1, PFMImage image2,
 			float scale) {
+		return difference(image1, image2, scale, null);
+	}
+
+	/**
+	 * Returns the difference between the two given images scaled by the given
+	 * amount, drawing the floats of the result from the given pool.
+	 * 
+	 * @param image1
+	 *            the first image.
+	 * @param image2
+	 *            the second image.
+	 * @param scale
+	 *            the scale used to scale the difference.
+	 * @param pool
+	 *            the pool to draw the floats of the result from or null.
+	 * @throws NullPointerException
+	 *             when one of the images is null.
+	 * @throws IllegalArgumentException
+	 *             when the sizes of the images do not match.
+	 * @return the difference between the two given images. When a pool is
+	 *         given, the image should be disposed when it is no longer needed.
+	 */
+	public static PFMImage difference(PFMImage image1, PFMImage image2,
+			float scale, PFMBufferPool pool) {
 		if (image1 == null)
 			throw new NullPointerException("the first image is null!");
 		if (image2 == null)
@@ -125,19 +156,287 @@ public class PFMUtil {
 
 		final int resolution = image1.width * image1.height;
 		final int nbOfFloats = 3 * resolution;
-		float[] floats = new float[nbOfFloats];
+		PFMMetrics.Span span = PFMMetrics.begin(Stage.COMPARE);
+		float[] floats = pool == null ? new float[nbOfFloats] : pool
+				.acquireFloats(nbOfFloats);
+		if (pool == null)
+			PFMMetrics.count(Counter.ALLOCATED_BYTES, 4L * nbOfFloats);
 		float[] c1, c2;
 
 		for (int y = 0; y < image1.height; ++y)
 			for (int x = 0; x < image1.width; ++x) {
 				c1 = image1.getColorAt(x, y);
 				c2 = image2.getColorAt(x, y);
-				int index = 3 * (image1.height * y + x);
+				int index = 3 * (image1.width * y + x);
 
 				for (int i = 0; i < 3; ++i)
 					floats[index + i] = scale * Math.abs(c1[i] - c2[i]);
 			}
 
-		return new PFMImage(image1.width, image1.height, floats);
+		span.end(4L * nbOfFloats, image1.nbOfFloats() + image2.nbOfFloats());
+		return new PFMImage(image1.width, image1.height, floats, pool);
+	}
+
+	/**
+	 * Computes the mean structural similarity index between the two given
+	 * images using the 11x11 Gaussian window and a dynamic range of one.
+	 * 
+	 * @param image1
+	 *            the first image.
+	 * @param image2
+	 *            the second image.
+	 * @throws NullPointerException
+	 *             when one of the images is null.
+	 * @throws IllegalArgumentException
+	 *             when the sizes of the images do not match.
+	 * @return the mean structural similarity index over all pixels and
+	 *         channels, which is one for identical images.
+	 */
+	public static double SSIM(PFMImage image1, PFMImage image2)
+			throws NullPointerException, IllegalArgumentException {
+		return SSIM(image1, image2, SSIMWindow.GAUSSIAN, 1.0);
+	}
+
+	/**
+	 * Computes the mean structural similarity index between the two given
+	 * images using the given window and dynamic range.
+	 * 
+	 * @param image1
+	 *            the first image.
+	 * @param image2
+	 *            the second image.
+	 * @param window
+	 *            the window over which the local statistics are computed.
+	 * @param range
+	 *            the dynamic range of the floats, which scales the
+	 *            stabilizing constants of the index.
+	 * @throws NullPointerException
+	 *             when one of the images or the window is null.
+	 * @throws IllegalArgumentException
+	 *             when the sizes of the images do not match.
+	 * @return the mean structural similarity index over all pixels and
+	 *         channels, which is one for identical images.
+	 */
+	public static double SSIM(PFMImage image1, PFMImage image2,
+			SSIMWindow window, double range) throws NullPointerException,
+			IllegalArgumentException {
+		check(image1, image2);
+		if (window == null)
+			throw new NullPointerException("the given window is null!");
+		PFMMetrics.Span span = PFMMetrics.begin(Stage.COMPARE);
+		double result = new SSIMFilter(image1, image2, window, range, null)
+				.compute();
+		span.end(0, image1.nbOfFloats() + image2.nbOfFloats());
+		return result;
+	}
+
+	/**
+	 * Returns the structural similarity index of every pixel between the two
+	 * given images using the 11x11 Gaussian window and a dynamic range of one.
+	 * 
+	 * @param image1
+	 *            the first image.
+	 * @param image2
+	 *            the second image.
+	 * @throws NullPointerException
+	 *             when one of the images is null.
+	 * @throws IllegalArgumentException
+	 *             when the sizes of the images do not match.
+	 * @return an image with the index of every channel, which is a gray scale
+	 *         image when both images are gray scale images.
+	 */
+	public static PFMImage SSIMMap(PFMImage image1, PFMImage image2)
+			throws NullPointerException, IllegalArgumentException {
+		return SSIMMap(image1, image2, SSIMWindow.GAUSSIAN, 1.0);
+	}
+
+	/**
+	 * Returns the structural similarity index of every pixel between the two
+	 * given images using the given window and dynamic range.
+	 * 
+	 * @param image1
+	 *            the first image.
+	 * @param image2
+	 *            the second image.
+	 * @param window
+	 *            the window over which the local statistics are computed.
+	 * @param range
+	 *            the dynamic range of the floats, which scales the
+	 *            stabilizing constants of the index.
+	 * @throws NullPointerException
+	 *             when one of the images or the window is null.
+	 * @throws IllegalArgumentException
+	 *             when the sizes of the images do not match.
+	 * @return an image with the index of every channel, which is a gray scale
+	 *         image when both images are gray scale images.
+	 */
+	public static PFMImage SSIMMap(PFMImage image1, PFMImage image2,
+			SSIMWindow window, double range) throws NullPointerException,
+			IllegalArgumentException {
+		check(image1, image2);
+		if (window == null)
+			throw new NullPointerException("the given window is null!");
+		PFMMetrics.Span span = PFMMetrics.begin(Stage.COMPARE);
+		final int channels = image1.isGrayScale() && image2.isGrayScale() ? 1
+				: 3;
+		float[] map = new float[channels * image1.width * image1.height];
+		new SSIMFilter(image1, image2, window, range, map).compute();
+		span.end(4L * map.length, image1.nbOfFloats() + image2.nbOfFloats());
+		return new PFMImage(image1.width, image1.height, map, null);
+	}
+
+	/**
+	 * Computes the relative mean squared error of the given image with respect
+	 * to the given reference with an epsilon of 0.01.
+	 * 
+	 * @param image
+	 *            the image.
+	 * @param reference
+	 *            the reference.
+	 * @throws NullPointerException
+	 *             when one of the images is null.
+	 * @throws IllegalArgumentException
+	 *             when the sizes of the images do not match.
+	 * @return the relative mean squared error.
+	 * @see #relativeMSE(PFMImage, PFMImage, double)
+	 */
+	public static double relativeMSE(PFMImage image, PFMImage reference)
+			throws NullPointerException, IllegalArgumentException {
+		return relativeMSE(image, reference, 0.01);
+	}
+
+	/**
+	 * Computes the relative mean squared error of the given image with respect
+	 * to the given reference. The error of every channel is (x-y)^2/(y^2+e),
+	 * where y is the reference, and like {@link #MSE(PFMImage, PFMImage)} the
+	 * errors of the three channels of a pixel are summed and averaged over the
+	 * pixels.
+	 * 
+	 * @param image
+	 *            the image.
+	 * @param reference
+	 *            the reference.
+	 * @param epsilon
+	 *            the epsilon which avoids the division by zero in black
+	 *            regions of the reference.
+	 * @throws NullPointerException
+	 *             when one of the images is null.
+	 * @throws IllegalArgumentException
+	 *             when the sizes of the images do not match.
+	 * @return the relative mean squared error.
+	 */
+	public static double relativeMSE(final PFMImage image,
+			final PFMImage reference, final double epsilon)
+			throws NullPointerException, IllegalArgumentException {
+		check(image, reference);
+		PFMMetrics.Span span = PFMMetrics.begin(Stage.COMPARE);
+		double sum = Parallel.reduce(0, image.height,
+				new Parallel.Reduction<Double>() {
+					@Override
+					public Double compute(int from, int to) {
+						return relativeErrors(image, reference, epsilon, from,
+								to, null);
+					}
+
+					@Override
+					public Double merge(Double left, Double right) {
+						return left + right;
+					}
+				});
+		span.end(0, image.nbOfFloats() + reference.nbOfFloats());
+		return sum / (image.width * image.height);
+	}
+
+	/**
+	 * Returns the relative squared error of every channel of the given image
+	 * with respect to the given reference.
+	 * 
+	 * @param image
+	 *            the image.
+	 * @param reference
+	 *            the reference.
+	 * @param epsilon
+	 *            the epsilon which avoids the division by zero in black
+	 *            regions of the reference.
+	 * @throws NullPointerException
+	 *             when one of the images is null.
+	 * @throws IllegalArgumentException
+	 *             when the sizes of the images do not match.
+	 * @return a color image with the relative squared error of every channel.
+	 * @see #relativeMSE(PFMImage, PFMImage, double)
+	 */
+	public static PFMImage relativeMSEMap(final PFMImage image,
+			final PFMImage reference, final double epsilon)
+			throws NullPointerException, IllegalArgumentException {
+		check(image, reference);
+		PFMMetrics.Span span = PFMMetrics.begin(Stage.COMPARE);
+		final float[] map = new float[3 * image.width * image.height];
+		Parallel.forEach(0, image.height, new Parallel.Body() {
+			@Override
+			public void run(int from, int to) {
+				relativeErrors(image, reference, epsilon, from, to, map);
+			}
+		});
+		span.end(4L * map.length, image.nbOfFloats() + reference.nbOfFloats());
+		return new PFMImage(image.width, image.height, map, null);
+	}
+
+	/**
+	 * Sums the relative squared errors of the given rows.
+	 * 
+	 * @param image
+	 *            the image.
+	 * @param reference
+	 *            the reference.
+	 * @param epsilon
+	 *            the epsilon.
+	 * @param from
+	 *            the first row (inclusive).
+	 * @param to
+	 *            the last row (exclusive).
+	 * @param map
+	 *            the array to store the error of every channel in, or null.
+	 * @return the sum of the relative squared errors of the given rows.
+	 */
+	private static double relativeErrors(PFMImage image, PFMImage reference,
+			double epsilon, int from, int to, float[] map) {
+		final boolean gray1 = image.isGrayScale();
+		final boolean gray2 = reference.isGrayScale();
+		double sum = 0;
+		for (int i = from * image.width; i < to * image.width; ++i)
+			for (int c = 0; c < 3; ++c) {
+				final double x = image.getFloat(gray1 ? i : 3 * i + c);
+				final double y = reference.getFloat(gray2 ? i : 3 * i + c);
+				final double error = (x - y) * (x - y) / (y * y + epsilon);
+				sum += error;
+				if (map != null)
+					map[3 * i + c] = (float) error;
+			}
+		return sum;
+	}
+
+	/**
+	 * Checks whether the two given images can be compared.
+	 * 
+	 * @param image1
+	 *            the first image.
+	 * @param image2
+	 *            the second image.
+	 * @throws NullPointerException
+	 *             when one of the images is null.
+	 * @throws IllegalArgumentException
+	 *             when the sizes of the images do not match.
+	 */
+	private static void check(PFMImage image1, PFMImage image2)
+			throws NullPointerException, IllegalArgumentException {
+		if (image1 == null)
+			throw new NullPointerException("the first image is null!");
+		if (image2 == null)
+			throw new NullPointerException("the second image is null!");
+		if (image1.width != image2.width || image1.height != image2.height)
+			throw new IllegalArgumentException(
+					"the images do not have matching size!" + image1.width
+							+ "x" + image1.height + " vs " + image2.width + "x"
+							+ image2.height);
 	}
 }
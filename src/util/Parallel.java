@@ -0,0 +1,259 @@
+package util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Utility methods to process a range of rows or pixels in parallel bands on
+ * the common fork/join pool.
+ * 
+ * The range is split in halves until the bands are no larger than the grain
+ * size. Ranges which fit in a single band are processed on the calling thread.
+ * 
+ * @author Niels Billen
+ * @version 1.0
+ * 
+ *          Redistribution and use in source and binary forms, with or without
+ *          modification, are permitted provided that the following conditions
+ *          are met:
+ * 
+ *          - Redistributions of source code must retain the above copyright
+ *          notice, this list of conditions and the following disclaimer.
+ * 
+ *          - Redistributions in binary form must reproduce the above copyright
+ *          notice, this list of conditions and the following disclaimer in the
+ *          documentation and/or other materials provided with the distribution.
+ * 
+ *          THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *          "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *          LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *          FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *          COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *          INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *          BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *          LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *          CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *          LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *          ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *          POSSIBILITY OF SUCH DAMAGE.
+ */
+public class Parallel {
+	/**
+	 * The work performed on a band of a range.
+	 */
+	public interface Body {
+		/**
+		 * Processes the band [from,to).
+		 * 
+		 * @param from
+		 *            the first index of the band (inclusive).
+		 * @param to
+		 *            the last index of the band (exclusive).
+		 */
+		public void run(int from, int to);
+	}
+
+	/**
+	 * The work performed on a band of a range which produces a partial result
+	 * which is merged with the results of the neighbouring bands.
+	 * 
+	 * @param <T>
+	 *            the type of the result.
+	 */
+	public interface Reduction<T> {
+		/**
+		 * Processes the band [from,to) and returns its partial result.
+		 * 
+		 * @param from
+		 *            the first index of the band (inclusive).
+		 * @param to
+		 *            the last index of the band (exclusive).
+		 * @return the partial result of the band.
+		 */
+		public T compute(int from, int to);
+
+		/**
+		 * Merges the partial results of two adjacent bands.
+		 * 
+		 * @param left
+		 *            the result of the band with the lower indices.
+		 * @param right
+		 *            the result of the band with the higher indices.
+		 * @return the merged result.
+		 */
+		public T merge(T left, T right);
+	}
+
+	/**
+	 * Returns a grain size which splits the given number of indices in a few
+	 * bands per available processor.
+	 * 
+	 * @param n
+	 *            the number of indices.
+	 * @return a grain size for the given number of indices.
+	 */
+	public static int grain(int n) {
+		return Math.max(1, n / (4 * ForkJoinPool.getCommonPoolParallelism()));
+	}
+
+	/**
+	 * Processes the range [from,to) in parallel bands using the default grain
+	 * size.
+	 * 
+	 * @param from
+	 *            the first index of the range (inclusive).
+	 * @param to
+	 *            the last index of the range (exclusive).
+	 * @param body
+	 *            the work performed on each band.
+	 */
+	public static void forEach(int from, int to, Body body) {
+		forEach(from, to, grain(to - from), body);
+	}
+
+	/**
+	 * Processes the range [from,to) in parallel bands of at most the given
+	 * grain size.
+	 * 
+	 * @param from
+	 *            the first index of the range (inclusive).
+	 * @param to
+	 *            the last index of the range (exclusive).
+	 * @param grain
+	 *            the maximum size of a band.
+	 * @param body
+	 *            the work performed on each band.
+	 * @throws IllegalArgumentException
+	 *             when the grain size is smaller than or equal to zero.
+	 * @throws NullPointerException
+	 *             when the given body is null.
+	 */
+	public static void forEach(int from, int to, int grain, Body body)
+			throws IllegalArgumentException, NullPointerException {
+		if (grain <= 0)
+			throw new IllegalArgumentException(
+					"the grain size has to be larger than zero!");
+		if (body == null)
+			throw new NullPointerException("the given body is null!");
+		if (to - from <= grain)
+			body.run(from, to);
+		else
+			ForkJoinPool.commonPool().invoke(
+					new ForEach(from, to, grain, body));
+	}
+
+	/**
+	 * Processes the range [from,to) in parallel bands using the default grain
+	 * size and merges their results.
+	 * 
+	 * @param from
+	 *            the first index of the range (inclusive).
+	 * @param to
+	 *            the last index of the range (exclusive).
+	 * @param reduction
+	 *            the work performed on each band.
+	 * @return the merged result of all the bands.
+	 */
+	public static <T> T reduce(int from, int to, Reduction<T> reduction) {
+		return reduce(from, to, grain(to - from), reduction);
+	}
+
+	/**
+	 * Processes the range [from,to) in parallel bands of at most the given
+	 * grain size and merges their results. Results are always merged with
+	 * their adjacent bands, so the merge does not have to be commutative.
+	 * 
+	 * @param from
+	 *            the first index of the range (inclusive).
+	 * @param to
+	 *            the last index of the range (exclusive).
+	 * @param grain
+	 *            the maximum size of a band.
+	 * @param reduction
+	 *            the work performed on each band.
+	 * @throws IllegalArgumentException
+	 *             when the grain size is smaller than or equal to zero.
+	 * @throws NullPointerException
+	 *             when the given reduction is null.
+	 * @return the merged result of all the bands.
+	 */
+	public static <T> T reduce(int from, int to, int grain,
+			Reduction<T> reduction) throws IllegalArgumentException,
+			NullPointerException {
+		if (grain <= 0)
+			throw new IllegalArgumentException(
+					"the grain size has to be larger than zero!");
+		if (reduction == null)
+			throw new NullPointerException("the given reduction is null!");
+		if (to - from <= grain)
+			return reduction.compute(from, to);
+		else
+			return ForkJoinPool.commonPool().invoke(
+					new Reduce<T>(from, to, grain, reduction));
+	}
+
+	/**
+	 * Splits a range until it fits in a band.
+	 */
+	private static final class ForEach extends RecursiveAction {
+		private static final long serialVersionUID = 4162251365474325839L;
+		private final int from, to, grain;
+		private final Body body;
+
+		public ForEach(int from, int to, int grain, Body body) {
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+			this.body = body;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.concurrent.RecursiveAction#compute()
+		 */
+		@Override
+		protected void compute() {
+			if (to - from <= grain)
+				body.run(from, to);
+			else {
+				int mid = (from + to) >>> 1;
+				invokeAll(new ForEach(from, mid, grain, body), new ForEach(
+						mid, to, grain, body));
+			}
+		}
+	}
+
+	/**
+	 * Splits a range until it fits in a band and merges the results.
+	 */
+	private static final class Reduce<T> extends RecursiveTask<T> {
+		private static final long serialVersionUID = -2783598436418757721L;
+		private final int from, to, grain;
+		private final Reduction<T> reduction;
+
+		public Reduce(int from, int to, int grain, Reduction<T> reduction) {
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+			this.reduction = reduction;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.concurrent.RecursiveTask#compute()
+		 */
+		@Override
+		protected T compute() {
+			if (to - from <= grain)
+				return reduction.compute(from, to);
+			int mid = (from + to) >>> 1;
+			Reduce<T> left = new Reduce<T>(from, mid, grain, reduction);
+			left.fork();
+			T right = new Reduce<T>(mid, to, grain, reduction).compute();
+			return reduction.merge(left.join(), right);
+		}
+	}
+}
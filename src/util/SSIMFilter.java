@@ -0,0 +1,357 @@
+package util;
+
+import io.PFMImage;
+
+import java.util.Arrays;
+
+/**
+ * Computes the structural similarity index of two images with a separable
+ * sliding window.
+ * 
+ * The images are split in tiles which are processed in parallel. Every tile
+ * streams its rows, including a margin of the radius of the window, through a
+ * horizontal pass into a ring buffer of 2*radius+1 filtered rows, from which
+ * the vertical pass produces the windowed sums of x, y, x^2, y^2 and xy of
+ * every output row. Box windows keep running sums in both passes. The scratch
+ * memory of a thread is therefore bounded by the width of a tile and the size
+ * of the window, not by the size of the image.
+ * 
+ * Windows are clipped at the borders of the image and the sums are normalized
+ * by the weights which remain.
+ * 
+ * @author Niels Billen
+ * @version 1.0
+ * 
+ *          Redistribution and use in source and binary forms, with or without
+ *          modification, are permitted provided that the following conditions
+ *          are met:
+ * 
+ *          - Redistributions of source code must retain the above copyright
+ *          notice, this list of conditions and the following disclaimer.
+ * 
+ *          - Redistributions in binary form must reproduce the above copyright
+ *          notice, this list of conditions and the following disclaimer in the
+ *          documentation and/or other materials provided with the distribution.
+ * 
+ *          THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *          "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *          LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *          FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *          COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *          INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *          BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *          LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *          CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *          LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *          ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *          POSSIBILITY OF SUCH DAMAGE.
+ */
+final class SSIMFilter {
+	private static final int TILE_WIDTH = 256;
+	private static final int TILE_HEIGHT = 64;
+	private static final int SUMS = 5;
+
+	private final PFMImage image1;
+	private final PFMImage image2;
+	private final int width;
+	private final int height;
+	private final int channels;
+	private final int stride1;
+	private final int stride2;
+	private final SSIMWindow window;
+	private final double c1;
+	private final double c2;
+	private final float[] map;
+
+	/**
+	 * Creates a new filter.
+	 * 
+	 * @param image1
+	 *            the first image.
+	 * @param image2
+	 *            the second image, which has the same size as the first.
+	 * @param window
+	 *            the window.
+	 * @param range
+	 *            the dynamic range of the floats.
+	 * @param map
+	 *            the array to store the index of every float in, or null.
+	 */
+	SSIMFilter(PFMImage image1, PFMImage image2, SSIMWindow window,
+			double range, float[] map) {
+		this.image1 = image1;
+		this.image2 = image2;
+		this.width = image1.width;
+		this.height = image1.height;
+		this.channels = image1.isGrayScale() && image2.isGrayScale() ? 1 : 3;
+		this.stride1 = image1.isGrayScale() ? 1 : 3;
+		this.stride2 = image2.isGrayScale() ? 1 : 3;
+		this.window = window;
+		this.c1 = (0.01 * range) * (0.01 * range);
+		this.c2 = (0.03 * range) * (0.03 * range);
+		this.map = map;
+	}
+
+	/**
+	 * Returns the number of channels which are compared, which is 1 when both
+	 * images are gray scale images and 3 otherwise.
+	 * 
+	 * @return the number of channels which are compared.
+	 */
+	int channels() {
+		return channels;
+	}
+
+	/**
+	 * Computes the index of every pixel and channel and returns the mean.
+	 * 
+	 * @return the mean structural similarity index.
+	 */
+	double compute() {
+		final int tilesX = (width + TILE_WIDTH - 1) / TILE_WIDTH;
+		final int tilesY = (height + TILE_HEIGHT - 1) / TILE_HEIGHT;
+		final int tiles = tilesX * tilesY;
+
+		double sum = Parallel.reduce(0, tiles, new Parallel.Reduction<Double>() {
+			@Override
+			public Double compute(int from, int to) {
+				Scratch scratch = new Scratch(Math.min(width, TILE_WIDTH));
+				double sum = 0;
+				for (int t = from; t < to; ++t) {
+					int x0 = (t % tilesX) * TILE_WIDTH;
+					int y0 = (t / tilesX) * TILE_HEIGHT;
+					sum += tile(x0, Math.min(width, x0 + TILE_WIDTH), y0,
+							Math.min(height, y0 + TILE_HEIGHT), scratch);
+				}
+				return sum;
+			}
+
+			@Override
+			public Double merge(Double left, Double right) {
+				return left + right;
+			}
+		});
+		return sum / ((double) width * height * channels);
+	}
+
+	/**
+	 * Computes the index of every pixel and channel in the given tile.
+	 * 
+	 * @param x0
+	 *            the first column of the tile (inclusive).
+	 * @param x1
+	 *            the last column of the tile (exclusive).
+	 * @param y0
+	 *            the first row of the tile (inclusive).
+	 * @param y1
+	 *            the last row of the tile (exclusive).
+	 * @param scratch
+	 *            the scratch memory of the current thread.
+	 * @return the sum of the index over the pixels and channels of the tile.
+	 */
+	private double tile(int x0, int x1, int y0, int y1, Scratch scratch) {
+		final int r = window.radius;
+		final double[] w = window.weights;
+		final int n = (x1 - x0) * channels * SUMS;
+		final double[][] ring = scratch.ring;
+		final double[] v = scratch.vertical;
+		final double[] normX = scratch.normX;
+
+		for (int x = x0; x < x1; ++x) {
+			double norm = 0;
+			for (int k = Math.max(-r, -x); k <= Math.min(r, width - 1 - x); ++k)
+				norm += w[k + r];
+			normX[x - x0] = norm;
+		}
+		if (window.box)
+			Arrays.fill(v, 0, n, 0.0);
+
+		double sum = 0;
+		for (int y = y0 - r; y < y1 + r; ++y) {
+			if (y >= 0 && y < height) {
+				double[] row = ring[y % ring.length];
+				horizontal(y, x0, x1, row);
+				if (window.box)
+					for (int i = 0; i < n; ++i)
+						v[i] += row[i];
+			}
+
+			final int yo = y - r;
+			if (yo < y0)
+				continue;
+
+			double normY = 0;
+			for (int k = Math.max(-r, -yo); k <= Math.min(r, height - 1 - yo); ++k)
+				normY += w[k + r];
+
+			if (!window.box) {
+				Arrays.fill(v, 0, n, 0.0);
+				for (int k = Math.max(-r, -yo); k <= Math.min(r, height - 1
+						- yo); ++k) {
+					final double wk = w[k + r];
+					final double[] row = ring[(yo + k) % ring.length];
+					for (int i = 0; i < n; ++i)
+						v[i] += wk * row[i];
+				}
+			}
+
+			for (int x = x0; x < x1; ++x) {
+				final double inv_norm = 1.0 / (normX[x - x0] * normY);
+				for (int c = 0; c < channels; ++c) {
+					final int o = ((x - x0) * channels + c) * SUMS;
+					final double mx = v[o] * inv_norm;
+					final double my = v[o + 1] * inv_norm;
+					final double vx = v[o + 2] * inv_norm - mx * mx;
+					final double vy = v[o + 3] * inv_norm - my * my;
+					final double cxy = v[o + 4] * inv_norm - mx * my;
+					final double ssim = ((2 * mx * my + c1) * (2 * cxy + c2))
+							/ ((mx * mx + my * my + c1) * (vx + vy + c2));
+					sum += ssim;
+					if (map != null)
+						map[channels * (yo * width + x) + c] = (float) ssim;
+				}
+			}
+
+			// The oldest row leaves the box window.
+			final int leaving = yo - r;
+			if (window.box && leaving >= 0) {
+				double[] row = ring[leaving % ring.length];
+				for (int i = 0; i < n; ++i)
+					v[i] -= row[i];
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Computes the horizontally filtered sums of the given row for the columns
+	 * of a tile.
+	 * 
+	 * @param y
+	 *            the row.
+	 * @param x0
+	 *            the first column of the tile (inclusive).
+	 * @param x1
+	 *            the last column of the tile (exclusive).
+	 * @param row
+	 *            the array to store the sums in.
+	 */
+	private void horizontal(int y, int x0, int x1, double[] row) {
+		final int r = window.radius;
+		final double[] w = window.weights;
+		final int base = y * width;
+
+		for (int c = 0; c < channels; ++c) {
+			if (window.box) {
+				double sx = 0, sy = 0, sxx = 0, syy = 0, sxy = 0;
+				// Prime the running sums with the window of the first column
+				// except its rightmost pixel.
+				for (int k = Math.max(0, x0 - r); k < Math.min(width, x0 + r); ++k) {
+					final double a = value1(base + k, c);
+					final double b = value2(base + k, c);
+					sx += a;
+					sy += b;
+					sxx += a * a;
+					syy += b * b;
+					sxy += a * b;
+				}
+				for (int x = x0; x < x1; ++x) {
+					final int in = x + r, out = x - r - 1;
+					if (in < width) {
+						final double a = value1(base + in, c);
+						final double b = value2(base + in, c);
+						sx += a;
+						sy += b;
+						sxx += a * a;
+						syy += b * b;
+						sxy += a * b;
+					}
+					if (out >= 0 && x > x0) {
+						final double a = value1(base + out, c);
+						final double b = value2(base + out, c);
+						sx -= a;
+						sy -= b;
+						sxx -= a * a;
+						syy -= b * b;
+						sxy -= a * b;
+					}
+					final int o = ((x - x0) * channels + c) * SUMS;
+					row[o] = sx;
+					row[o + 1] = sy;
+					row[o + 2] = sxx;
+					row[o + 3] = syy;
+					row[o + 4] = sxy;
+				}
+			} else {
+				for (int x = x0; x < x1; ++x) {
+					double sx = 0, sy = 0, sxx = 0, syy = 0, sxy = 0;
+					for (int k = Math.max(-r, -x); k <= Math.min(r, width - 1
+							- x); ++k) {
+						final double wk = w[k + r];
+						final double a = value1(base + x + k, c);
+						final double b = value2(base + x + k, c);
+						sx += wk * a;
+						sy += wk * b;
+						sxx += wk * a * a;
+						syy += wk * b * b;
+						sxy += wk * a * b;
+					}
+					final int o = ((x - x0) * channels + c) * SUMS;
+					row[o] = sx;
+					row[o + 1] = sy;
+					row[o + 2] = sxx;
+					row[o + 3] = syy;
+					row[o + 4] = sxy;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the given channel of the given pixel of the first image.
+	 * 
+	 * @param i
+	 *            the index of the pixel.
+	 * @param c
+	 *            the channel.
+	 * @return the given channel of the given pixel of the first image.
+	 */
+	private double value1(int i, int c) {
+		return stride1 == 1 ? image1.getFloat(i) : image1.getFloat(3 * i + c);
+	}
+
+	/**
+	 * Returns the given channel of the given pixel of the second image.
+	 * 
+	 * @param i
+	 *            the index of the pixel.
+	 * @param c
+	 *            the channel.
+	 * @return the given channel of the given pixel of the second image.
+	 */
+	private double value2(int i, int c) {
+		return stride2 == 1 ? image2.getFloat(i) : image2.getFloat(3 * i + c);
+	}
+
+	/**
+	 * The scratch memory of a thread, sized for a single tile.
+	 */
+	private final class Scratch {
+		final double[][] ring;
+		final double[] vertical;
+		final double[] normX;
+
+		/**
+		 * Creates the scratch memory for tiles of at most the given width.
+		 * 
+		 * @param tileWidth
+		 *            the maximum width of a tile.
+		 */
+		Scratch(int tileWidth) {
+			final int n = tileWidth * channels * SUMS;
+			ring = new double[2 * window.radius + 1][n];
+			vertical = new double[n];
+			normX = new double[tileWidth];
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package util;
+
+/**
+ * The weighting window over which the local statistics of the structural
+ * similarity index are computed. The window is separable, so it is applied as
+ * a horizontal and a vertical pass over the image.
+ * 
+ * @author Niels Billen
+ * @version 1.0
+ * 
+ *          Redistribution and use in source and binary forms, with or without
+ *          modification, are permitted provided that the following conditions
+ *          are met:
+ * 
+ *          - Redistributions of source code must retain the above copyright
+ *          notice, this list of conditions and the following disclaimer.
+ * 
+ *          - Redistributions in binary form must reproduce the above copyright
+ *          notice, this list of conditions and the following disclaimer in the
+ *          documentation and/or other materials provided with the distribution.
+ * 
+ *          THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *          "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *          LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *          FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *          COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *          INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *          BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *          LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *          CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *          LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *          ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *          POSSIBILITY OF SUCH DAMAGE.
+ */
+public final class SSIMWindow {
+	/**
+	 * The 11x11 Gaussian window with a standard deviation of 1.5 pixels
+	 * proposed by Wang et al.
+	 */
+	public static final SSIMWindow GAUSSIAN = gaussian(1.5);
+
+	final int radius;
+	final double[] weights;
+	final boolean box;
+
+	/**
+	 * Creates a new window.
+	 * 
+	 * @param weights
+	 *            the weights of the window, of length 2*radius+1.
+	 * @param box
+	 *            whether all the weights are equal.
+	 */
+	private SSIMWindow(double[] weights, boolean box) {
+		this.radius = weights.length / 2;
+		this.weights = weights;
+		this.box = box;
+	}
+
+	/**
+	 * Returns a square window with equal weights, which is evaluated with
+	 * running sums in constant time per pixel regardless of its size.
+	 * 
+	 * @param radius
+	 *            the radius of the window, which is 2*radius+1 pixels wide.
+	 * @throws IllegalArgumentException
+	 *             when the radius is negative.
+	 * @return a square window with equal weights.
+	 */
+	public static SSIMWindow box(int radius) throws IllegalArgumentException {
+		if (radius < 0)
+			throw new IllegalArgumentException(
+					"the radius cannot be negative!");
+		double[] weights = new double[2 * radius + 1];
+		for (int i = 0; i < weights.length; ++i)
+			weights[i] = 1.0;
+		return new SSIMWindow(weights, true);
+	}
+
+	/**
+	 * Returns a Gaussian window with the given standard deviation, truncated
+	 * at a radius of about 3.5 standard deviations.
+	 * 
+	 * @param sigma
+	 *            the standard deviation in pixels.
+	 * @throws IllegalArgumentException
+	 *             when the standard deviation is smaller than or equal to
+	 *             zero.
+	 * @return a Gaussian window.
+	 */
+	public static SSIMWindow gaussian(double sigma)
+			throws IllegalArgumentException {
+		if (!(sigma > 0))
+			throw new IllegalArgumentException(
+					"the standard deviation has to be larger than zero!");
+		final int radius = (int) Math.ceil(3.5 * sigma) - 1;
+		double[] weights = new double[2 * radius + 1];
+		for (int i = -radius; i <= radius; ++i)
+			weights[i + radius] = Math.exp(-0.5 * i * i / (sigma * sigma));
+		return new SSIMWindow(weights, false);
+	}
+
+	/**
+	 * Returns the radius of this window.
+	 * 
+	 * @return the radius of this window.
+	 */
+	public int getRadius() {
+		return radius;
+	}
+}
@@ -2,6 +2,7 @@ package viewer;
 
 import io.PFMImage;
 import io.PFMReader;
+import metrics.PFMMetrics;
 
 import java.awt.Dimension;
 import java.awt.Graphics;
@@ -65,12 +66,13 @@ public class PFMViewer {
 	public static void main(String[] args) {
 		if (args.length == 0) {
 			// @formatter:off
-			System.out.println("usage: --gamma <double> --open <files> --convert <files> --r <directory>");
+			System.out.println("usage: --gamma <double> --metrics --open <files> --convert <files> --r <directory>");
 			System.out.println(" --open    : open following .pfm files");
 			System.out.println(" --convert : convert following .pfm files to .png files");
 			System.out.println(" --r       : recursive traversal in a directory.");
 			System.out.println("             all .pfm files will be opened or converted");
 			System.out.println(" --gamma   : gamma correction");
+			System.out.println(" --metrics : print a summary of the time spent per stage");
 			// @formatter:on
 			return;
 		}
@@ -78,6 +80,7 @@ public class PFMViewer {
 		double gamma = 1;
 		int status = 0;
 		boolean recursive = false;
+		boolean metrics = false;
 		for (int i = 0; i < args.length; ++i) {
 			try {
 				if (args[i].equals("--open"))
@@ -86,7 +89,10 @@ public class PFMViewer {
 					status = 1;
 				else if (args[i].equals("--r") || args[i].equals("-r"))
 					recursive = true;
-				else if (args[i].equals("--gamma")) {
+				else if (args[i].equals("--metrics")) {
+					metrics = true;
+					PFMMetrics.setEnabled(true);
+				} else if (args[i].equals("--gamma")) {
 					try {
 						gamma = Double.parseDouble(args[i + 1]);
 						++i;
@@ -123,6 +129,9 @@ public class PFMViewer {
 				e.printStackTrace();
 			}
 		}
+
+		if (metrics)
+			PFMMetrics.print(System.out);
 	}
 
 	/**